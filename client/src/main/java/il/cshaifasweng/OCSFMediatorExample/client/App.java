@@ -35,9 +35,20 @@ public class App extends Application {
         client = SimpleClient.getClient();
         client.openConnection();
 
-        //  Subscribe on server side after connection is open
+        // --name=<name> rates this player's games under that name, and
+        // --watch=<room> makes this client a spectator of that room
+        // instead of a player
+        String name = getParameters().getNamed().get("name");
+        String room = getParameters().getNamed().get("watch");
         try {
-            client.sendToServer("add client");
+            if (name != null) {
+                client.login(name);
+            }
+            if (room != null) {
+                client.watch(Long.parseLong(room));
+            } else {
+                client.play();
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -60,13 +71,9 @@ public class App extends Application {
                 EventBus.getDefault().unregister(this);
             }
 
-            // Close server connection gracefully
+            // Close server connection gracefully; the server forgets
+            // the client's seat or the room it watched
             if (client != null) {
-                try {
-                    client.sendToServer("remove client");
-                } catch (IOException ignored) {
-                    // not critical on shutdown
-                }
                 client.closeConnection();
             }
         } finally {
@@ -91,6 +98,6 @@ public class App extends Application {
     }
 
     public static void main(String[] args) {
-        launch();
+        launch(args);
     }
 }
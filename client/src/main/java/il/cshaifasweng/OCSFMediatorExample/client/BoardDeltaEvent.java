@@ -0,0 +1,15 @@
+package il.cshaifasweng.OCSFMediatorExample.client;
+
+import il.cshaifasweng.OCSFMediatorExample.entities.BoardDelta;
+
+public class BoardDeltaEvent {
+    private final BoardDelta boardDelta;
+
+    public BoardDeltaEvent(BoardDelta boardDelta) {
+        this.boardDelta = boardDelta;
+    }
+
+    public BoardDelta getBoardDelta() {
+        return boardDelta;
+    }
+}
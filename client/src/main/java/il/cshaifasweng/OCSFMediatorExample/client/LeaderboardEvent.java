@@ -0,0 +1,15 @@
+package il.cshaifasweng.OCSFMediatorExample.client;
+
+import il.cshaifasweng.OCSFMediatorExample.entities.LeaderboardPage;
+
+public class LeaderboardEvent {
+    private final LeaderboardPage page;
+
+    public LeaderboardEvent(LeaderboardPage page) {
+        this.page = page;
+    }
+
+    public LeaderboardPage getPage() {
+        return page;
+    }
+}
@@ -1,13 +1,16 @@
 package il.cshaifasweng.OCSFMediatorExample.client;
 
+import il.cshaifasweng.OCSFMediatorExample.entities.BoardDelta;
 import il.cshaifasweng.OCSFMediatorExample.entities.BoardUpdate;
 import il.cshaifasweng.OCSFMediatorExample.entities.GameStart;
-import il.cshaifasweng.OCSFMediatorExample.entities.MoveRequest;
+import il.cshaifasweng.OCSFMediatorExample.entities.LeaderboardPage;
+import il.cshaifasweng.OCSFMediatorExample.entities.LeaderboardRequest;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
+import javafx.scene.layout.GridPane;
 import javafx.stage.Window;
 import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.Subscribe;
@@ -16,22 +19,43 @@ import java.io.IOException;
 
 public class PrimaryController {
 
-    @FXML private Button b00; @FXML private Button b01; @FXML private Button b02;
-    @FXML private Button b10; @FXML private Button b11; @FXML private Button b12;
-    @FXML private Button b20; @FXML private Button b21; @FXML private Button b22;
+    @FXML private GridPane boardGrid;
 
     @FXML private Label statusLabel;
+    @FXML private Button leaderboardButton;
+
+    private static final int LEADERBOARD_PAGE = 10;
+
+    /**
+     * Boards are shown in about this many pixels, with cells no smaller
+     * than MIN_CELL_SIZE
+     */
+    private static final int BOARD_PIXELS = 240;
+    private static final int MIN_CELL_SIZE = 28;
 
     private char mySymbol = '\0';   // 'X'/'O'
     private boolean myTurn = false;
 
+    // The board as last shown, kept in step by the deltas (FX thread only);
+    // classic 3x3 until the server's first full board says otherwise
+    private Button[][] cells;
+    private char[][] board;
+    private int boardSeq = -1;          // sequence number of the last move applied, -1 before the first snapshot
+    private boolean resyncPending = false;
+
     @FXML
     void initialize() {
 
-        // Wire buttons to send MoveRequest
-        wire(b00, 0, 0); wire(b01, 0, 1); wire(b02, 0, 2);
-        wire(b10, 1, 0); wire(b11, 1, 1); wire(b12, 1, 2);
-        wire(b20, 2, 0); wire(b21, 2, 1); wire(b22, 2, 2);
+        buildBoard(3);
+
+        leaderboardButton.setOnAction(e -> {
+            try {
+                SimpleClient.getClient().sendToServer(new LeaderboardRequest(0, LEADERBOARD_PAGE));
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                setStatus("Failed to request the leaderboard");
+            }
+        });
 
         setStatus("Waiting for game to start...");
         setBoardDisabled(true); // until GameStart arrives
@@ -77,6 +101,38 @@ public class PrimaryController {
         applyBoardUpdate(event.getBoardUpdate());
     }
 
+    /**
+     * EventBus handler: called when server sends the last move
+     */
+    @Subscribe
+    public void onBoardDelta(BoardDeltaEvent event) {
+        applyBoardUpdate(event.getBoardDelta());
+    }
+
+    /**
+     * EventBus handler: called when server sends a leaderboard page
+     */
+    @Subscribe
+    public void onLeaderboard(LeaderboardEvent event) {
+        LeaderboardPage page = event.getPage();
+        StringBuilder text = new StringBuilder();
+        for (LeaderboardPage.Entry entry : page.getEntries()) {
+            text.append(entry).append('\n');
+        }
+        if (page.getEntries().isEmpty()) {
+            text.append("No rated games yet\n");
+        }
+        if (page.getYou() != null) {
+            text.append("\nYou: ").append(page.getYou()).append(" of ").append(page.getPlayerCount());
+        }
+
+        Platform.runLater(() -> {
+            Alert alert = new Alert(Alert.AlertType.INFORMATION, text.toString());
+            alert.setHeaderText("Leaderboard");
+            alert.show();
+        });
+    }
+
     private void wire(Button btn, int r, int c) {
         btn.setOnAction(e -> {
             if (!myTurn) return;                    // not my turn
@@ -92,7 +148,7 @@ public class PrimaryController {
                     return;
                 }
 
-                cClient.sendToServer(new MoveRequest(r, c));
+                cClient.sendMove(r, c);
             } catch (IOException ex) {
                 ex.printStackTrace();
                 setStatus("Failed to send move");
@@ -104,23 +160,49 @@ public class PrimaryController {
         if (statusLabel != null) statusLabel.setText(s);
     }
 
+    /**
+     * Replaces the cells with an empty board of the given size, each
+     * cell wired to send its move; must run on the FX thread
+     */
+    private void buildBoard(int size) {
+        int cellSize = Math.max(MIN_CELL_SIZE, BOARD_PIXELS / size);
+        boardGrid.getChildren().clear();
+        cells = new Button[size][size];
+        board = new char[size][size];
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                Button btn = new Button();
+                btn.setMinSize(cellSize, cellSize);
+                wire(btn, r, c);
+                cells[r][c] = btn;
+                boardGrid.add(btn, c, r);
+            }
+        }
+    }
+
     private void setBoardDisabled(boolean disabled) {
-        b00.setDisable(disabled); b01.setDisable(disabled); b02.setDisable(disabled);
-        b10.setDisable(disabled); b11.setDisable(disabled); b12.setDisable(disabled);
-        b20.setDisable(disabled); b21.setDisable(disabled); b22.setDisable(disabled);
+        for (Button[] row : cells) {
+            for (Button btn : row) {
+                btn.setDisable(disabled);
+            }
+        }
     }
 
     private void setButtonsFromBoard(char[][] board) {
-        b00.setText(cell(board[0][0])); b01.setText(cell(board[0][1])); b02.setText(cell(board[0][2]));
-        b10.setText(cell(board[1][0])); b11.setText(cell(board[1][1])); b12.setText(cell(board[1][2]));
-        b20.setText(cell(board[2][0])); b21.setText(cell(board[2][1])); b22.setText(cell(board[2][2]));
+        for (int r = 0; r < cells.length; r++) {
+            for (int c = 0; c < cells.length; c++) {
+                cells[r][c].setText(cell(board[r][c]));
+            }
+        }
     }
 
     private void disableFilledCells(char[][] board) {
         // Disable only cells that are already filled
-        b00.setDisable(board[0][0] != '\0'); b01.setDisable(board[0][1] != '\0'); b02.setDisable(board[0][2] != '\0');
-        b10.setDisable(board[1][0] != '\0'); b11.setDisable(board[1][1] != '\0'); b12.setDisable(board[1][2] != '\0');
-        b20.setDisable(board[2][0] != '\0'); b21.setDisable(board[2][1] != '\0'); b22.setDisable(board[2][2] != '\0');
+        for (int r = 0; r < cells.length; r++) {
+            for (int c = 0; c < cells.length; c++) {
+                cells[r][c].setDisable(board[r][c] != '\0');
+            }
+        }
     }
 
     private void showGameOver(char winner) {
@@ -161,38 +243,94 @@ public class PrimaryController {
 
     private void applyBoardUpdate(BoardUpdate upd) {
         Platform.runLater(() -> {
-            char[][] board = upd.getBoard();
+            // The first board of a server with other rules resizes the grid
+            if (upd.getBoard().length != cells.length) {
+                buildBoard(upd.getBoard().length);
+            }
+            board = upd.getBoard();
+            boardSeq = upd.getSeq();
+            resyncPending = false;
             setButtonsFromBoard(board);
+            applyTurn(upd.getNextTurn(), upd.isGameOver(), upd.getWinner());
+        });
+    }
 
-            // If game is over
-            if (upd.isGameOver()) {
-                myTurn = false;
-                setBoardDisabled(true);
-                showGameOver(upd.getWinner());
-                return;
-            }
+    /**
+     * Applies a single move on top of the board already shown. If a move
+     * was missed, the whole board is requested again and deltas are
+     * ignored until it arrives.
+     */
+    private void applyBoardUpdate(BoardDelta delta) {
+        Platform.runLater(() -> {
+            if (resyncPending) return;
 
-            // If we still didn't receive GameStart
-            if (mySymbol == '\0') {
-                setStatus("Waiting for game start...");
-                setBoardDisabled(true);
+            // A move sent twice is answered twice
+            if (delta.getSeq() <= boardSeq) return;
+
+            // A move off the grid means the board shown has the wrong size
+            if (delta.getSeq() != boardSeq + 1
+                    || delta.getRow() >= cells.length || delta.getCol() >= cells.length) {
+                requestResync();
                 return;
             }
 
+            board[delta.getRow()][delta.getCol()] = delta.getSymbol();
+            boardSeq = delta.getSeq();
+            cells[delta.getRow()][delta.getCol()].setText(cell(delta.getSymbol()));
+            applyTurn(delta.getNextTurn(), delta.isGameOver(), delta.getWinner());
+        });
+    }
 
-            myTurn = (upd.getNextTurn() == mySymbol);
+    private void requestResync() {
+        resyncPending = true;
+        try {
+            SimpleClient.getClient().sendToServer("#resync");
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            resyncPending = false;
+            setStatus("Failed to request the board");
+        }
+    }
 
-            setStatus(myTurn
-                    ? "Your turn (" + mySymbol + ")"
-                    : "Opponent's turn (next: " + upd.getNextTurn() + ")");
+    /**
+     * Updates the status and the buttons once the board is up to date;
+     * must run on the FX thread
+     */
+    private void applyTurn(char nextTurn, boolean gameOver, char winner) {
+        // If game is over
+        if (gameOver) {
+            myTurn = false;
+            setBoardDisabled(true);
+            showGameOver(winner);
+            return;
+        }
 
-            // Enable/disable buttons
-            if (myTurn) {
-                setBoardDisabled(false);
-                disableFilledCells(board);
-            } else {
-                setBoardDisabled(true);
-            }
-        });
+        // Spectators only follow the game
+        if (SimpleClient.getClient().isWatching()) {
+            setStatus("Watching (next: " + nextTurn + ")");
+            setBoardDisabled(true);
+            return;
+        }
+
+        // If we still didn't receive GameStart
+        if (mySymbol == '\0') {
+            setStatus("Waiting for game start...");
+            setBoardDisabled(true);
+            return;
+        }
+
+        myTurn = (nextTurn == mySymbol);
+
+        setStatus(myTurn
+                ? "Your turn (" + mySymbol + ")"
+                : "Opponent's turn (next: " + nextTurn + ")");
+
+        // Enable/disable buttons
+        if (myTurn) {
+            setBoardDisabled(false);
+            disableFilledCells(board);
+        } else {
+            setBoardDisabled(true);
+        }
     }
 }
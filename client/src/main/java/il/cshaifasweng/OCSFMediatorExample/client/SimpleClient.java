@@ -1,33 +1,176 @@
 package il.cshaifasweng.OCSFMediatorExample.client;
 
 import il.cshaifasweng.OCSFMediatorExample.client.ocsf.AbstractClient;
+import il.cshaifasweng.OCSFMediatorExample.entities.BoardDelta;
 import il.cshaifasweng.OCSFMediatorExample.entities.BoardUpdate;
 import il.cshaifasweng.OCSFMediatorExample.entities.GameStart;
+import il.cshaifasweng.OCSFMediatorExample.entities.LeaderboardPage;
+import il.cshaifasweng.OCSFMediatorExample.entities.MoveRequest;
+import il.cshaifasweng.OCSFMediatorExample.entities.ResumeRequest;
+import il.cshaifasweng.OCSFMediatorExample.entities.SessionToken;
 import il.cshaifasweng.OCSFMediatorExample.entities.Warning;
+import il.cshaifasweng.OCSFMediatorExample.entities.wire.CompactCodec;
+import il.cshaifasweng.OCSFMediatorExample.entities.wire.ResetPolicy;
 import org.greenrobot.eventbus.EventBus;
 
+import java.io.IOException;
+
 public class SimpleClient extends AbstractClient {
 
     private static SimpleClient client = null;
 
+    /**
+     * The room this client watches, or -1 when it plays
+     */
+    private volatile long watchedRoom = -1;
+
+    /**
+     * The name this client logged in with, or null
+     */
+    private volatile String name;
+
+    /**
+     * Presented to take the seat back after the connection drops
+     */
+    private volatile String token;
+
+    /**
+     * The number of the last move received in order, -1 before the board
+     */
+    private volatile int lastSeq = -1;
+
+    /**
+     * The last move sent, until its delta arrives; sent again after a
+     * reconnection, the server playing it at most once
+     */
+    private volatile MoveRequest pendingMove;
+
+    /**
+     * Attempts to reconnect after the connection drops, each waiting a
+     * little longer than the one before
+     */
+    private static final int RECONNECT_ATTEMPTS = 5;
+    private static final long RECONNECT_DELAY_MILLIS = 500;
+
     private SimpleClient(String host, int port) {
         super(host, port);
+        setCodec(CompactCodec.INSTANCE); // must match the server
+        setResetPolicy(ResetPolicy.mutableOnly(MoveRequest.class));
     }
 
     @Override
     protected void handleMessageFromServer(Object msg) {
 
+        if (msg instanceof SessionToken) {
+            token = ((SessionToken) msg).getToken();
+            return;
+        }
+        if (msg instanceof BoardUpdate) {
+            lastSeq = ((BoardUpdate) msg).getSeq();
+        } else if (msg instanceof BoardDelta && ((BoardDelta) msg).getSeq() == lastSeq + 1) {
+            lastSeq = ((BoardDelta) msg).getSeq();
+        }
+        MoveRequest pending = pendingMove;
+        if (pending != null && lastSeq >= pending.getSeq()) {
+            pendingMove = null;
+        }
+
         if (msg instanceof Warning) {
             EventBus.getDefault().post(new WarningEvent((Warning) msg));
         } else if (msg instanceof GameStart) {
             EventBus.getDefault().post(new GameStartEvent((GameStart) msg));
+        } else if (msg instanceof BoardDelta) {
+            EventBus.getDefault().post(new BoardDeltaEvent((BoardDelta) msg));
         } else if (msg instanceof BoardUpdate) {
             EventBus.getDefault().post(new BoardUpdateEvent((BoardUpdate) msg));
+        } else if (msg instanceof LeaderboardPage) {
+            EventBus.getDefault().post(new LeaderboardEvent((LeaderboardPage) msg));
         } else {
             System.out.println(msg);
         }
     }
 
+    /**
+     * Watches a room instead of playing: the server sends its board and
+     * then its moves
+     */
+    public void watch(long roomId) throws IOException {
+        watchedRoom = roomId;
+        sendToServer("#watch " + roomId);
+    }
+
+    public boolean isWatching() {
+        return watchedRoom >= 0;
+    }
+
+    /**
+     * Asks for a game; the server pairs this client with the next
+     * player, or the bot
+     */
+    public void play() throws IOException {
+        watchedRoom = -1;
+        sendToServer("#play");
+    }
+
+    /**
+     * Sends a move numbered after the last move received; sending it
+     * again, on a flaky link or a double click, is harmless
+     */
+    public void sendMove(int row, int col) throws IOException {
+        MoveRequest move = new MoveRequest(row, col, lastSeq + 1);
+        pendingMove = move;
+        sendToServer(move);
+    }
+
+    /**
+     * Rates this client's games under a name
+     */
+    public void login(String name) throws IOException {
+        this.name = name;
+        sendToServer("#login " + name);
+    }
+
+    /**
+     * Reconnects when the connection drops rather than being closed
+     */
+    @Override
+    protected void connectionException(Exception exception) {
+        if (isConnected() || token == null) return;
+        Thread reconnect = new Thread(this::reconnect, "reconnect");
+        reconnect.setDaemon(true);
+        reconnect.start();
+    }
+
+    /**
+     * Opens a new connection and takes back the seat of the dropped one,
+     * or watches the same room again
+     */
+    private void reconnect() {
+        for (int attempt = 1; attempt <= RECONNECT_ATTEMPTS; attempt++) {
+            try {
+                Thread.sleep(RECONNECT_DELAY_MILLIS * attempt);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                String resumeToken = token; // replaced by the new connection's
+                openConnection();
+                if (name != null) sendToServer("#login " + name);
+                if (isWatching()) {
+                    sendToServer("#watch " + watchedRoom);
+                } else {
+                    sendToServer(new ResumeRequest(resumeToken, lastSeq));
+                    MoveRequest pending = pendingMove;
+                    if (pending != null) sendToServer(pending);
+                }
+                return;
+            } catch (IOException e) {
+                // the server is still out of reach
+            }
+        }
+        System.out.println("Could not reconnect to the server");
+    }
+
     public static SimpleClient getClient() {
         if (client == null) {
             client = new SimpleClient("192.168.47.137", 3000);
@@ -4,6 +4,11 @@
 
 package il.cshaifasweng.OCSFMediatorExample.client.ocsf;
 
+import il.cshaifasweng.OCSFMediatorExample.entities.wire.MessageCodec;
+import il.cshaifasweng.OCSFMediatorExample.entities.wire.ResetPolicy;
+import il.cshaifasweng.OCSFMediatorExample.entities.wire.ResetTracker;
+import il.cshaifasweng.OCSFMediatorExample.entities.wire.WireFormat;
+
 import java.io.*;
 import java.net.*;
 import java.util.*;
@@ -79,6 +84,62 @@ public abstract class AbstractClient implements Runnable
   */
   private ObjectInputStream input;
 
+  /**
+  * The buffered stream under <code>output</code>, written directly
+  * when a codec is used. Bytes only reach the socket when it is
+  * flushed or full.
+  */
+  private OutputStream rawOutput;
+
+  /**
+  * The stream to read frames from the server when a codec is used,
+  * in place of <code>input</code>.
+  */
+  private DataInputStream framedInput;
+
+  /**
+  * The codec used to exchange messages, or null to use the object
+  * streams of Java serialization.
+  */
+  private MessageCodec codec = null;
+
+  /**
+  * When the object output stream is reset. Before every message
+  * by default.
+  */
+  private ResetPolicy resetPolicy = ResetPolicy.ALWAYS;
+
+  /**
+  * Applies the reset policy to the current connection.
+  */
+  private ResetTracker resetTracker;
+
+  /**
+  * Whether Nagle's algorithm is disabled on the socket. True by
+  * default since output is flushed once per batch of messages.
+  */
+  private boolean tcpNoDelay = true;
+
+  /**
+  * Whether keep-alive probes are sent while the connection is idle.
+  */
+  private boolean keepAlive = false;
+
+  /**
+  * The send buffer size of the socket, 0 for the operating system's.
+  */
+  private int sendBufferSize = 0;
+
+  /**
+  * The receive buffer size of the socket, 0 for the operating system's.
+  */
+  private int receiveBufferSize = 0;
+
+  /**
+  * The size of the buffer in front of the socket.
+  */
+  private static final int OUTPUT_BUFFER_SIZE = 8192;
+
   /**
   * The thread created to read data from the server.
   */
@@ -133,9 +194,34 @@ public abstract class AbstractClient implements Runnable
     //Create the sockets and the data streams
     try
     {
-      clientSocket= new Socket(host, port);
-      output = new ObjectOutputStream(clientSocket.getOutputStream());
-      input = new ObjectInputStream(clientSocket.getInputStream());
+      // Options are set before connecting so that large buffers
+      // are taken into account when the connection is negotiated
+      clientSocket= new Socket();
+      clientSocket.setTcpNoDelay(tcpNoDelay);
+      clientSocket.setKeepAlive(keepAlive);
+      if (sendBufferSize > 0)
+        clientSocket.setSendBufferSize(sendBufferSize);
+      if (receiveBufferSize > 0)
+        clientSocket.setReceiveBufferSize(receiveBufferSize);
+      clientSocket.connect(new InetSocketAddress(host, port));
+
+      rawOutput = new BufferedOutputStream(
+        clientSocket.getOutputStream(), OUTPUT_BUFFER_SIZE);
+      if (codec == null)
+      {
+        resetTracker = new ResetTracker(resetPolicy);
+        output = new ObjectOutputStream(resetTracker.wrap(rawOutput));
+        rawOutput.flush(); // the server waits for the stream header
+        input = new ObjectInputStream(clientSocket.getInputStream());
+      }
+      else
+      {
+        WireFormat.writeHeader(rawOutput, codec);
+        rawOutput.flush();
+        framedInput = new DataInputStream(
+          new BufferedInputStream(clientSocket.getInputStream()));
+        WireFormat.readHeader(framedInput, codec);
+      }
     }
     catch (IOException ex)
     // All three of the above must be closed when there is a failure
@@ -168,11 +254,49 @@ public abstract class AbstractClient implements Runnable
    */
   public void sendToServer(Object msg) throws IOException
   {
-    if (clientSocket == null || output == null) {
+    sendToServer(msg, true);
+  }
+
+  /**
+   * Sends an object to the server, possibly as part of a batch.
+   * Without a flush the message is only buffered; it is sent, together
+   * with the messages written after it, by the next message sent with
+   * a flush or by <code>flush()</code>. Buffered messages are lost if
+   * the connection is closed first.
+   *
+   * @param msg   The message to be sent.
+   * @param flush true to send every buffered message now.
+   * @exception IOException if an I/O error occurs when sending
+   * @see #sendToServer(Object)
+   */
+  public void sendToServer(Object msg, boolean flush) throws IOException
+  {
+    if (clientSocket == null || rawOutput == null) {
+      throw new SocketException("socket does not exist");
+    }
+    if (codec != null) {
+      rawOutput.write(WireFormat.frame(codec, msg));
+    } else {
+      if (resetTracker.beforeWrite(msg))
+        output.reset();
+      output.writeObject(msg);
+      resetTracker.afterWrite(msg);
+    }
+    if (flush)
+      rawOutput.flush();
+  }
+
+  /**
+   * Sends every message buffered by <code>sendToServer(msg, false)</code>.
+   *
+   * @exception IOException if an I/O error occurs when flushing.
+   */
+  final public void flush() throws IOException
+  {
+    if (clientSocket == null || rawOutput == null) {
       throw new SocketException("socket does not exist");
     }
-    output.reset();
-    output.writeObject(msg);
+    rawOutput.flush();
   }
 
   /**
@@ -237,6 +361,99 @@ public abstract class AbstractClient implements Runnable
     this.host = host;
   }
 
+  /**
+   * Sets the codec used to exchange messages with the server.
+   * The change only takes effect at the time of the next call to
+   * openConnection(). The server must use the same codec; a null
+   * codec means the object streams of Java serialization.
+   *
+   * @param codec the codec, or null.
+   */
+  final public void setCodec(MessageCodec codec)
+  {
+    this.codec = codec;
+  }
+
+  /**
+   * Sets whether Nagle's algorithm is disabled on the socket. The
+   * change only takes effect at the time of the next call to
+   * openConnection(). The default is true.
+   *
+   * @param on true to send flushed bytes without delay.
+   */
+  final public void setTcpNoDelay(boolean on)
+  {
+    this.tcpNoDelay = on;
+  }
+
+  /**
+   * Sets whether keep-alive probes are sent while the connection is
+   * idle. The change only takes effect at the time of the next call
+   * to openConnection(). The default is false.
+   *
+   * @param on true to enable keep-alive.
+   */
+  final public void setKeepAlive(boolean on)
+  {
+    this.keepAlive = on;
+  }
+
+  /**
+   * Sets the send buffer size of the socket. The change only takes
+   * effect at the time of the next call to openConnection(). A size
+   * of 0, the default, leaves the size chosen by the operating system.
+   *
+   * @param size the buffer size in bytes.
+   */
+  final public void setSendBufferSize(int size)
+  {
+    this.sendBufferSize = size;
+  }
+
+  /**
+   * Sets the receive buffer size of the socket. The change only takes
+   * effect at the time of the next call to openConnection(). A size
+   * of 0, the default, leaves the size chosen by the operating system.
+   *
+   * @param size the buffer size in bytes.
+   */
+  final public void setReceiveBufferSize(int size)
+  {
+    this.receiveBufferSize = size;
+  }
+
+  /**
+   * @return the codec, or null when the object streams are used.
+   */
+  final public MessageCodec getCodec()
+  {
+    return codec;
+  }
+
+  /**
+   * Sets when the object output stream is reset. Only meaningful
+   * without a codec. The change only takes effect at the time of the
+   * next call to openConnection(). Resetting less often saves the
+   * class descriptors of every message but is only correct for
+   * messages that are not modified once sent.
+   *
+   * @param policy the reset policy.
+   */
+  final public void setResetPolicy(ResetPolicy policy)
+  {
+    this.resetPolicy = policy;
+  }
+
+  /**
+   * @return the tracker of the current connection, whose counters
+   *   tell how many descriptor bytes skipped resets saved, or null
+   *   when a codec is used.
+   */
+  final public ResetTracker getResetTracker()
+  {
+    return codec == null ? resetTracker : null;
+  }
+
   /**
    * returns the client's description.
    *
@@ -273,7 +490,9 @@ public abstract class AbstractClient implements Runnable
         
         try { // added in version 2.31
         
-          msg = input.readObject();
+          msg = codec != null
+            ? WireFormat.readFrame(framedInput, codec)
+            : input.readObject();
 
           // Concrete subclasses do what they want with the
           // msg by implementing the following method
@@ -376,6 +595,8 @@ public abstract class AbstractClient implements Runnable
       //Close the input stream
       if (input != null)
         input.close();
+      if (framedInput != null)
+        framedInput.close();
     }
     finally
     {
@@ -384,7 +605,9 @@ public abstract class AbstractClient implements Runnable
       // of these objects to reclaim system resources if and
       // when they are garbage collected.
       output = null;
+      rawOutput = null;
       input = null;
+      framedInput = null;
       clientSocket = null;
     }
   }
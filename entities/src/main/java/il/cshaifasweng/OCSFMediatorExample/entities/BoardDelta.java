@@ -0,0 +1,39 @@
+package il.cshaifasweng.OCSFMediatorExample.entities;
+
+import java.io.Serializable;
+
+/**
+ * The last move of a game: one cell and how the game stands after it.
+ * Moves are numbered from 1 in each game; a client holding the board at
+ * sequence number n applies the delta numbered n + 1, and asks for a
+ * fresh {@link BoardUpdate} if it sees any other number.
+ */
+public class BoardDelta implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int seq;
+    private final int row;
+    private final int col;
+    private final char symbol;
+    private final char nextTurn;
+    private final boolean gameOver;
+    private final char winner;
+
+    public BoardDelta(int seq, int row, int col, char symbol, char nextTurn, boolean gameOver, char winner) {
+        this.seq = seq;
+        this.row = row;
+        this.col = col;
+        this.symbol = symbol;
+        this.nextTurn = nextTurn;
+        this.gameOver = gameOver;
+        this.winner = winner;
+    }
+
+    public int getSeq() { return seq; }
+    public int getRow() { return row; }
+    public int getCol() { return col; }
+    public char getSymbol() { return symbol; }
+    public char getNextTurn() { return nextTurn; }
+    public boolean isGameOver() { return gameOver; }
+    public char getWinner() { return winner; }
+}
@@ -2,6 +2,11 @@ package il.cshaifasweng.OCSFMediatorExample.entities;
 
 import java.io.Serializable;
 
+/**
+ * The whole board, sent when a game starts and whenever a client asks to
+ * resynchronize. Later moves arrive as {@link BoardDelta}s numbered from
+ * {@link #getSeq()} on.
+ */
 public class BoardUpdate implements Serializable {
     private static final long serialVersionUID = 1L;
 
@@ -9,16 +14,27 @@ public class BoardUpdate implements Serializable {
     private final char nextTurn;
     private final boolean gameOver;
     private final char winner;
+    private final int seq;
 
     public BoardUpdate(char[][] board, char nextTurn, boolean gameOver, char winner) {
+        this(board, nextTurn, gameOver, winner, 0);
+    }
+
+    public BoardUpdate(char[][] board, char nextTurn, boolean gameOver, char winner, int seq) {
         this.board = board;
         this.nextTurn = nextTurn;
         this.gameOver = gameOver;
         this.winner = winner;
+        this.seq = seq;
     }
 
     public char[][] getBoard() { return board; }
     public char getNextTurn() { return nextTurn; }
     public boolean isGameOver() { return gameOver; }
     public char getWinner() { return winner; }
+
+    /**
+     * @return the number of the last move included in the board
+     */
+    public int getSeq() { return seq; }
 }
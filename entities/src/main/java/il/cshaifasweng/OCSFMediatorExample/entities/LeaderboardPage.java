@@ -0,0 +1,64 @@
+package il.cshaifasweng.OCSFMediatorExample.entities;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A page of the leaderboard, with the rank of the player who asked for
+ * it
+ */
+public class LeaderboardPage implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * A rated player and its place on the leaderboard
+     */
+    public static class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int rank;
+        private final String name;
+        private final int rating;
+
+        public Entry(int rank, String name, int rating) {
+            this.rank = rank;
+            this.name = name;
+            this.rating = rating;
+        }
+
+        /**
+         * @return the place on the leaderboard, 1 for the best player
+         */
+        public int getRank() { return rank; }
+        public String getName() { return name; }
+        public int getRating() { return rating; }
+
+        @Override
+        public String toString() {
+            return rank + ". " + name + " (" + rating + ")";
+        }
+    }
+
+    private final List<Entry> entries;
+    private final int playerCount;
+    private final Entry you;
+
+    public LeaderboardPage(List<Entry> entries, int playerCount, Entry you) {
+        this.entries = entries;
+        this.playerCount = playerCount;
+        this.you = you;
+    }
+
+    public List<Entry> getEntries() { return entries; }
+
+    /**
+     * @return the number of rated players
+     */
+    public int getPlayerCount() { return playerCount; }
+
+    /**
+     * @return the entry of the player who asked, or null if it is not
+     *         rated
+     */
+    public Entry getYou() { return you; }
+}
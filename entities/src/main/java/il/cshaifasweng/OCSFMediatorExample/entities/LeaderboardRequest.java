@@ -0,0 +1,27 @@
+package il.cshaifasweng.OCSFMediatorExample.entities;
+
+import java.io.Serializable;
+
+/**
+ * Asks for a page of the leaderboard: the players ranked from
+ * offset + 1 on, best first. The answer is a {@link LeaderboardPage}.
+ */
+public class LeaderboardRequest implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int offset;
+    private final int count;
+
+    public LeaderboardRequest(int offset, int count) {
+        this.offset = offset;
+        this.count = count;
+    }
+
+    public int getOffset() { return offset; }
+    public int getCount() { return count; }
+
+    @Override
+    public String toString() {
+        return "LeaderboardRequest{offset=" + offset + ", count=" + count + "}";
+    }
+}
@@ -2,22 +2,44 @@ package il.cshaifasweng.OCSFMediatorExample.entities;
 
 import java.io.Serializable;
 
+/**
+ * A move, numbered like the {@link BoardDelta} that will announce it, so
+ * that the server recognizes a move sent twice and plays it once.
+ */
 public class MoveRequest implements Serializable {
     private static final long serialVersionUID = 1L;
 
     private final int row;
     private final int col;
+    private final int seq;
 
+    /**
+     * An unnumbered move, checked against the board only
+     */
     public MoveRequest(int row, int col) {
+        this(row, col, 0);
+    }
+
+    /**
+     * @param seq the number this move takes in the game: one more than
+     *            the last move the client has
+     */
+    public MoveRequest(int row, int col, int seq) {
         this.row = row;
         this.col = col;
+        this.seq = seq;
     }
 
     public int getRow() { return row; }
     public int getCol() { return col; }
 
+    /**
+     * @return the number of the move, 0 if unnumbered
+     */
+    public int getSeq() { return seq; }
+
     @Override
     public String toString() {
-        return "MoveRequest{row=" + row + ", col=" + col + "}";
+        return "MoveRequest{row=" + row + ", col=" + col + ", seq=" + seq + "}";
     }
 }
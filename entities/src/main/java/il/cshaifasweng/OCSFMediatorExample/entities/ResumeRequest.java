@@ -0,0 +1,32 @@
+package il.cshaifasweng.OCSFMediatorExample.entities;
+
+import java.io.Serializable;
+
+/**
+ * Sent on a new connection to take back the seat of a dropped one. The
+ * server answers with the {@link GameStart} of the game in progress and
+ * the moves after lastSeq, or with the whole board.
+ */
+public class ResumeRequest implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String token;
+    private final int lastSeq;
+
+    /**
+     * @param token   the token of the dropped connection
+     * @param lastSeq the number of the last move the client has, or -1
+     */
+    public ResumeRequest(String token, int lastSeq) {
+        this.token = token;
+        this.lastSeq = lastSeq;
+    }
+
+    public String getToken() { return token; }
+    public int getLastSeq() { return lastSeq; }
+
+    @Override
+    public String toString() {
+        return "ResumeRequest{lastSeq=" + lastSeq + "}";
+    }
+}
@@ -0,0 +1,20 @@
+package il.cshaifasweng.OCSFMediatorExample.entities;
+
+import java.io.Serializable;
+
+/**
+ * The secret a client presents in a {@link ResumeRequest} to take its
+ * seat back after its connection dropped. Sent when the client connects,
+ * and again once a resume succeeded.
+ */
+public class SessionToken implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String token;
+
+    public SessionToken(String token) {
+        this.token = token;
+    }
+
+    public String getToken() { return token; }
+}
@@ -26,6 +26,11 @@ public class Warning implements Serializable {
 		this.time = LocalTime.now();
 	}
 
+	public Warning(String message, LocalTime time) {
+		this.message = message;
+		this.time = time;
+	}
+
 	public LocalTime getTime() {
 		return time;
 	}
@@ -0,0 +1,194 @@
+package il.cshaifasweng.OCSFMediatorExample.entities.wire;
+
+import il.cshaifasweng.OCSFMediatorExample.entities.BoardDelta;
+import il.cshaifasweng.OCSFMediatorExample.entities.BoardUpdate;
+import il.cshaifasweng.OCSFMediatorExample.entities.GameStart;
+import il.cshaifasweng.OCSFMediatorExample.entities.MoveRequest;
+import il.cshaifasweng.OCSFMediatorExample.entities.Warning;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
+import java.util.Arrays;
+
+/**
+ * Hand-written codec for the game messages.
+ * <p>
+ * A payload starts with a one-byte tag followed by the fields of the message
+ * in a fixed order, so a {@link MoveRequest} takes 9 bytes instead of the
+ * couple of hundred Java serialization needs, and decoding is plain field
+ * reads. A {@link BoardDelta} takes 16 bytes whatever the size of the
+ * board. Messages of any other type are tagged {@link #TAG_SERIALIZED} and
+ * carried with {@link SerializationCodec}.
+ */
+public final class CompactCodec implements MessageCodec {
+
+    public static final byte ID = 2;
+
+    public static final CompactCodec INSTANCE = new CompactCodec();
+
+    static final byte TAG_NULL = 0;
+    static final byte TAG_STRING = 1;
+    static final byte TAG_MOVE_REQUEST = 2;
+    static final byte TAG_BOARD_UPDATE = 3;
+    static final byte TAG_GAME_START = 4;
+    static final byte TAG_WARNING = 5;
+    static final byte TAG_BOARD_DELTA = 6;
+    static final byte TAG_SERIALIZED = 127;
+
+    private CompactCodec() {
+    }
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] encode(Object message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        if (message == null) {
+            out.writeByte(TAG_NULL);
+        } else if (message instanceof String) {
+            out.writeByte(TAG_STRING);
+            writeString(out, (String) message);
+        } else if (message instanceof MoveRequest) {
+            MoveRequest move = (MoveRequest) message;
+            out.writeByte(TAG_MOVE_REQUEST);
+            out.writeShort(move.getRow());
+            out.writeShort(move.getCol());
+            out.writeInt(move.getSeq());
+        } else if (message instanceof BoardUpdate) {
+            BoardUpdate update = (BoardUpdate) message;
+            out.writeByte(TAG_BOARD_UPDATE);
+            writeBoard(out, update.getBoard());
+            out.writeChar(update.getNextTurn());
+            out.writeBoolean(update.isGameOver());
+            out.writeChar(update.getWinner());
+            out.writeInt(update.getSeq());
+        } else if (message instanceof BoardDelta) {
+            BoardDelta delta = (BoardDelta) message;
+            out.writeByte(TAG_BOARD_DELTA);
+            out.writeInt(delta.getSeq());
+            out.writeShort(delta.getRow());
+            out.writeShort(delta.getCol());
+            out.writeChar(delta.getSymbol());
+            out.writeChar(delta.getNextTurn());
+            out.writeBoolean(delta.isGameOver());
+            out.writeChar(delta.getWinner());
+        } else if (message instanceof GameStart) {
+            GameStart start = (GameStart) message;
+            out.writeByte(TAG_GAME_START);
+            out.writeChar(start.getSymbol());
+            out.writeBoolean(start.isYourTurn());
+        } else if (message instanceof Warning) {
+            Warning warning = (Warning) message;
+            out.writeByte(TAG_WARNING);
+            writeString(out, warning.getMessage());
+            out.writeLong(warning.getTime() == null ? -1 : warning.getTime().toNanoOfDay());
+        } else {
+            out.writeByte(TAG_SERIALIZED);
+            out.write(SerializationCodec.INSTANCE.encode(message));
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Object decode(byte[] payload) throws IOException, ClassNotFoundException {
+        if (payload.length == 0) {
+            throw new StreamCorruptedException("empty payload");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload, 1, payload.length - 1));
+
+        switch (payload[0]) {
+            case TAG_NULL:
+                return null;
+            case TAG_STRING:
+                return readString(in);
+            case TAG_MOVE_REQUEST:
+                return new MoveRequest(in.readUnsignedShort(), in.readUnsignedShort(), in.readInt());
+            case TAG_BOARD_UPDATE:
+                return new BoardUpdate(readBoard(in), in.readChar(), in.readBoolean(), in.readChar(), in.readInt());
+            case TAG_BOARD_DELTA:
+                return new BoardDelta(in.readInt(), in.readUnsignedShort(), in.readUnsignedShort(),
+                        in.readChar(), in.readChar(), in.readBoolean(), in.readChar());
+            case TAG_GAME_START:
+                return new GameStart(in.readChar(), in.readBoolean());
+            case TAG_WARNING: {
+                String text = readString(in);
+                long nanos = in.readLong();
+                return new Warning(text, nanos < 0 ? null : LocalTime.ofNanoOfDay(nanos));
+            }
+            case TAG_SERIALIZED:
+                return SerializationCodec.INSTANCE.decode(Arrays.copyOfRange(payload, 1, payload.length));
+            default:
+                throw new StreamCorruptedException("unknown tag " + payload[0]);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] utf8 = new byte[checkLength(in, length, 1)];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private static void writeBoard(DataOutputStream out, char[][] board) throws IOException {
+        out.writeShort(board.length);
+        for (char[] row : board) {
+            out.writeShort(row.length);
+            for (char cell : row) {
+                out.writeChar(cell);
+            }
+        }
+    }
+
+    private static char[][] readBoard(DataInputStream in) throws IOException {
+        // Each row takes its 2-byte length at least
+        char[][] board = new char[checkLength(in, in.readUnsignedShort(), 2)][];
+        for (int r = 0; r < board.length; r++) {
+            board[r] = new char[checkLength(in, in.readUnsignedShort(), 2)];
+            for (int c = 0; c < board[r].length; c++) {
+                board[r][c] = in.readChar();
+            }
+        }
+        return board;
+    }
+
+    /**
+     * Checks a length read from the payload against what is left of it,
+     * before anything is allocated for it: the whole payload is already
+     * in memory, so a longer length can only be corrupt or hostile.
+     *
+     * @param unitBytes the fewest bytes each element takes
+     * @return the length
+     */
+    private static int checkLength(DataInputStream in, int length, int unitBytes) throws IOException {
+        if ((long) length * unitBytes > in.available()) {
+            throw new StreamCorruptedException("length " + length + " exceeds the payload");
+        }
+        return length;
+    }
+}
@@ -0,0 +1,39 @@
+package il.cshaifasweng.OCSFMediatorExample.entities.wire;
+
+import java.io.IOException;
+
+/**
+ * Turns messages into the payload of a wire frame and back.
+ * <p>
+ * A codec replaces the object streams OCSF uses by default. Every message
+ * is sent as one length-prefixed frame (see {@link WireFormat}), so a codec
+ * only ever sees complete payloads. Both peers must use the same codec;
+ * its {@link #getId() id} is exchanged when the connection opens.
+ * Implementations must be thread-safe.
+ */
+public interface MessageCodec {
+
+    /**
+     * @return the identifier written in the stream header
+     */
+    byte getId();
+
+    /**
+     * Encodes a message into a frame payload.
+     *
+     * @param message the message, may be null
+     * @return the payload bytes
+     * @throws IOException if the message cannot be encoded
+     */
+    byte[] encode(Object message) throws IOException;
+
+    /**
+     * Decodes a frame payload.
+     *
+     * @param payload the payload bytes
+     * @return the message
+     * @throws IOException            if the payload is malformed
+     * @throws ClassNotFoundException if the payload names an unknown class
+     */
+    Object decode(byte[] payload) throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,88 @@
+package il.cshaifasweng.OCSFMediatorExample.entities.wire;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Decides when an {@code ObjectOutputStream} used by OCSF is reset.
+ * <p>
+ * A reset makes the stream forget the objects and class descriptors it has
+ * already written, so the next message carries full descriptors again.
+ * Resetting before every message is the historical OCSF behaviour; it is
+ * always correct but wastes bytes. Not resetting is only correct when a
+ * message object is never modified after being sent, because a second send
+ * of the same instance is written as a back-reference to the first one.
+ * Resetting now and then also keeps the handle tables of both peers from
+ * growing without bound.
+ * <p>
+ * Instances are immutable and can be shared by any number of streams; the
+ * per-stream state lives in a {@link ResetTracker}.
+ */
+public final class ResetPolicy {
+
+    /** Resets before every message, like OCSF always did. */
+    public static final ResetPolicy ALWAYS = new ResetPolicy(1, 0, null);
+
+    /** Reset interval used by {@link #mutableOnly} to bound the handle tables. */
+    public static final int DEFAULT_MAX_MESSAGES = 1024;
+
+    private final int maxMessages;
+    private final long maxBytes;
+    private final Set<Class<?>> immutableTypes;
+
+    private ResetPolicy(int maxMessages, long maxBytes, Set<Class<?>> immutableTypes) {
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.immutableTypes = immutableTypes;
+    }
+
+    /**
+     * Resets once every {@code count} messages.
+     */
+    public static ResetPolicy everyMessages(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("count must be positive");
+        }
+        return new ResetPolicy(count, 0, null);
+    }
+
+    /**
+     * Resets once {@code bytes} bytes have been written since the last reset.
+     */
+    public static ResetPolicy afterBytes(long bytes) {
+        if (bytes < 1) {
+            throw new IllegalArgumentException("bytes must be positive");
+        }
+        return new ResetPolicy(0, bytes, null);
+    }
+
+    /**
+     * Resets before any message whose class is not one of the given immutable
+     * types, and at least every {@link #DEFAULT_MAX_MESSAGES} messages.
+     * {@code String} is always considered immutable.
+     */
+    public static ResetPolicy mutableOnly(Class<?>... immutableTypes) {
+        Set<Class<?>> types = new HashSet<>(Arrays.asList(immutableTypes));
+        types.add(String.class);
+        return new ResetPolicy(DEFAULT_MAX_MESSAGES, 0, Collections.unmodifiableSet(types));
+    }
+
+    /**
+     * Tells whether the stream must be reset before writing a message.
+     *
+     * @param message            the message about to be written
+     * @param messagesSinceReset messages written since the last reset
+     * @param bytesSinceReset    bytes written since the last reset
+     */
+    public boolean requiresReset(Object message, int messagesSinceReset, long bytesSinceReset) {
+        if (maxMessages > 0 && messagesSinceReset >= maxMessages) {
+            return true;
+        }
+        if (maxBytes > 0 && bytesSinceReset >= maxBytes) {
+            return true;
+        }
+        return immutableTypes != null && message != null && !immutableTypes.contains(message.getClass());
+    }
+}
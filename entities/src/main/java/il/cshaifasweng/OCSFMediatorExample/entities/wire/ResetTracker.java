@@ -0,0 +1,127 @@
+package il.cshaifasweng.OCSFMediatorExample.entities.wire;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Applies a {@link ResetPolicy} to one object stream and counts what it saves.
+ * <p>
+ * The tracker counts the bytes of the stream through {@link #wrap}. For each
+ * message class it remembers the size of the last encoding written right
+ * after a reset, which carries the full class descriptors; a later encoding
+ * written without a reset is smaller by roughly the descriptors it did not
+ * repeat, and that difference is added to {@link #getDescriptorBytesSaved()}.
+ * <p>
+ * A tracker is used by the single thread writing its stream; its counters
+ * may be read from any thread.
+ */
+public final class ResetTracker {
+
+    private final ResetPolicy policy;
+    private final Map<Class<?>, Long> fullSizes = new HashMap<>();
+
+    private volatile long position;
+    private long positionAtReset;
+    private long positionAtWrite;
+    private int messagesSinceReset;
+    private boolean resetPending;
+    private boolean lastWasReset;
+
+    private volatile long messages;
+    private volatile long resets;
+    private volatile long descriptorBytesSaved;
+
+    public ResetTracker(ResetPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Wraps the stream under the {@code ObjectOutputStream} so that written
+     * bytes are counted.
+     */
+    public OutputStream wrap(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                position++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                position += len;
+            }
+        };
+    }
+
+    /**
+     * Called before a message is written.
+     *
+     * @return true if the stream must be reset first
+     */
+    public boolean beforeWrite(Object message) {
+        lastWasReset = resetPending
+                || policy.requiresReset(message, messagesSinceReset, position - positionAtReset);
+        if (lastWasReset) {
+            resetPending = false;
+            messagesSinceReset = 0;
+            positionAtReset = position;
+            resets++;
+        }
+        positionAtWrite = position;
+        return lastWasReset;
+    }
+
+    /**
+     * Called once the message has been written and drained to the stream.
+     */
+    public void afterWrite(Object message) {
+        long size = position - positionAtWrite;
+        if (message != null) {
+            Class<?> type = message.getClass();
+            if (lastWasReset) {
+                fullSizes.put(type, size);
+            } else {
+                Long full = fullSizes.get(type);
+                if (full != null && full > size) {
+                    descriptorBytesSaved += full - size;
+                }
+            }
+        }
+        messagesSinceReset++;
+        messages++;
+    }
+
+    /**
+     * Forces a reset before the next message. Used after bytes were written
+     * to the peer without going through the object stream, which left the
+     * peer's handle table out of step with the stream's.
+     */
+    public void invalidate() {
+        resetPending = true;
+    }
+
+    /** @return the messages written through the tracked stream */
+    public long getMessages() {
+        return messages;
+    }
+
+    /** @return the resets performed */
+    public long getResets() {
+        return resets;
+    }
+
+    /** @return the bytes written through the tracked stream */
+    public long getBytesWritten() {
+        return position;
+    }
+
+    /** @return the estimated descriptor bytes not sent thanks to skipped resets */
+    public long getDescriptorBytesSaved() {
+        return descriptorBytesSaved;
+    }
+}
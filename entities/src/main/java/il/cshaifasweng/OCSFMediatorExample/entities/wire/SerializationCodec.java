@@ -0,0 +1,44 @@
+package il.cshaifasweng.OCSFMediatorExample.entities.wire;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Codec using Java serialization. Each payload is a complete, independent
+ * serialization stream, so it works for any {@code Serializable} message at
+ * the price of class descriptors in every frame and reflective decoding.
+ * {@link CompactCodec} falls back to it for types it does not know.
+ */
+public final class SerializationCodec implements MessageCodec {
+
+    public static final byte ID = 1;
+
+    public static final SerializationCodec INSTANCE = new SerializationCodec();
+
+    private SerializationCodec() {
+    }
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] encode(Object message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(message);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Object decode(byte[] payload) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(payload))) {
+            return in.readObject();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package il.cshaifasweng.OCSFMediatorExample.entities.wire;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+
+/**
+ * The framing shared by the client and the server when a {@link MessageCodec}
+ * is used.
+ * <p>
+ * A connection starts with a header made of {@link #MAGIC} and the codec id.
+ * Every message then follows as a frame: a 4-byte big-endian payload length
+ * and the payload produced by the codec.
+ */
+public final class WireFormat {
+
+    /** "OCSF" in ASCII, opens the stream header. */
+    public static final int MAGIC = 0x4F435346;
+
+    /** Length of the stream header in bytes. */
+    public static final int HEADER_LENGTH = 5;
+
+    /** Length of the frame length prefix in bytes. */
+    public static final int LENGTH_PREFIX = 4;
+
+    /** Frames larger than this are rejected as corrupt. */
+    public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    private WireFormat() {
+    }
+
+    /**
+     * Writes the stream header announcing the given codec.
+     */
+    public static void writeHeader(OutputStream out, MessageCodec codec) throws IOException {
+        out.write(new byte[]{
+                (byte) (MAGIC >>> 24), (byte) (MAGIC >>> 16), (byte) (MAGIC >>> 8), (byte) MAGIC,
+                codec.getId()});
+    }
+
+    /**
+     * Reads the peer's stream header and checks that it uses the same codec.
+     *
+     * @throws StreamCorruptedException if the header is not the expected one
+     */
+    public static void readHeader(DataInputStream in, MessageCodec codec) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new StreamCorruptedException("not an OCSF framed stream");
+        }
+        byte id = in.readByte();
+        if (id != codec.getId()) {
+            throw new StreamCorruptedException("peer uses codec " + id + ", expected " + codec.getId());
+        }
+    }
+
+    /**
+     * Encodes a message into a complete frame, length prefix included.
+     * The result can be written as is to any number of connections.
+     */
+    public static byte[] frame(MessageCodec codec, Object message) throws IOException {
+        byte[] payload = codec.encode(message);
+        byte[] frame = new byte[LENGTH_PREFIX + payload.length];
+        frame[0] = (byte) (payload.length >>> 24);
+        frame[1] = (byte) (payload.length >>> 16);
+        frame[2] = (byte) (payload.length >>> 8);
+        frame[3] = (byte) payload.length;
+        System.arraycopy(payload, 0, frame, LENGTH_PREFIX, payload.length);
+        return frame;
+    }
+
+    /**
+     * Reads one frame and decodes its payload.
+     *
+     * @throws EOFException if the stream ends before a complete frame
+     */
+    public static Object readFrame(DataInputStream in, MessageCodec codec)
+            throws IOException, ClassNotFoundException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new StreamCorruptedException("invalid frame length " + length);
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return codec.decode(payload);
+    }
+}
@@ -0,0 +1,319 @@
+package il.cshaifasweng.OCSFMediatorExample.server;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.function.IntConsumer;
+
+/**
+ * A computer player choosing moves by minimax with alpha-beta pruning.
+ * <p>
+ * The search deepens one ply at a time until it runs out of time or
+ * reaches the end of the game, and keeps the best move of the last
+ * complete iteration. Positions already searched, by this or any other
+ * game, are looked up in a shared {@link TranspositionTable} keyed by a
+ * Zobrist hash of the board, the rules and the side to move; a 3x3 game
+ * is solved after a handful of searches.
+ * <p>
+ * Boards up to 5x5 consider every empty cell. On larger boards only the
+ * cells next to a symbol are tried, and positions at the depth limit are
+ * scored by counting the lines still open to each side.
+ * <p>
+ * Searches run on the given executor, never on the caller's thread, and
+ * one bot serves any number of rooms.
+ */
+public final class AlphaBetaBot implements Bot {
+
+    /**
+     * Score of a won position, less one per ply so that quick wins and
+     * slow losses are preferred
+     */
+    static final int WIN = 1_000_000;
+
+    /**
+     * Scores beyond this are wins or losses found by the search
+     */
+    private static final int WIN_THRESHOLD = WIN - 100_000;
+
+    /**
+     * Largest board on which every empty cell is a candidate move
+     */
+    private static final int FULL_WIDTH_SIZE = 5;
+
+    /**
+     * Hash of the side to move, XORed in when 'O' is to move
+     */
+    private static final long O_TO_MOVE = mix(-1);
+
+    private final TranspositionTable table;
+    private final Executor executor;
+    private final long thinkNanos;
+
+    /**
+     * @param table       the positions shared by all searches
+     * @param executor    runs the searches
+     * @param thinkMillis the time a search may take
+     */
+    public AlphaBetaBot(TranspositionTable table, Executor executor, long thinkMillis) {
+        this.table = table;
+        this.executor = executor;
+        this.thinkNanos = thinkMillis * 1_000_000;
+    }
+
+    /**
+     * Chooses a move on the executor and hands it over from there.
+     */
+    @Override
+    public void play(BoardEngine board, char symbol, IntConsumer onMove) {
+        executor.execute(() -> onMove.accept(bestMove(board, symbol)));
+    }
+
+    /**
+     * Chooses a move on the calling thread.
+     */
+    @Override
+    public int bestMove(BoardEngine board, char symbol) {
+        return new Search(board, System.nanoTime() + thinkNanos).run(symbol);
+    }
+
+    /**
+     * The state of one search: the board being explored, its hash and
+     * the deadline
+     */
+    private final class Search {
+        private final BoardEngine board;
+        private final int size;
+        private final int winLength;
+        private final long deadline;
+        private long hash;
+        private int rootScore;
+        private long nodes = 0;
+        private boolean timeUp = false;
+
+        Search(BoardEngine board, long deadline) {
+            this.board = board;
+            this.size = board.getSize();
+            this.winLength = board.getWinLength();
+            this.deadline = deadline;
+        }
+
+        int run(char symbol) {
+            int empty = 0;
+            hash = mix((long) size << 32 | winLength);
+            for (int r = 0; r < size; r++) {
+                for (int c = 0; c < size; c++) {
+                    char cell = board.get(r, c);
+                    if (cell == '\0') empty++;
+                    else hash ^= key(r * size + c, cell);
+                }
+            }
+            if (symbol == 'O') hash ^= O_TO_MOVE;
+            if (empty == 0) return -1;
+
+            int[] moves = candidates(-1);
+            int best = moves[0];
+            for (int depth = 1; depth <= empty; depth++) {
+                int move = root(depth, symbol, best);
+                if (timeUp) break;
+                best = move;
+                if (Math.abs(rootScore) > WIN_THRESHOLD) break; // the outcome is known
+            }
+            return best;
+        }
+
+        /**
+         * Searches every move of the position and returns the best one
+         */
+        private int root(int depth, char side, int previousBest) {
+            int alpha = -WIN - 1;
+            int bestMove = previousBest;
+            for (int cell : candidates(previousBest)) {
+                int score = tryMove(cell, side, depth, alpha, WIN + 1, 0);
+                if (timeUp) return bestMove;
+                if (score > alpha) {
+                    alpha = score;
+                    bestMove = cell;
+                }
+            }
+            rootScore = alpha;
+            table.store(hash, depth, alpha, TranspositionTable.EXACT, bestMove);
+            return bestMove;
+        }
+
+        /**
+         * @return the score of the position for the side to move
+         */
+        private int negamax(int depth, int alpha, int beta, char side, int ply) {
+            if ((++nodes & 1023) == 0 && System.nanoTime() - deadline > 0) {
+                timeUp = true;
+            }
+            if (timeUp) return 0;
+
+            int ttMove = -1;
+            long entry = table.probe(hash);
+            if (entry != TranspositionTable.MISS) {
+                ttMove = TranspositionTable.move(entry);
+                if (TranspositionTable.depth(entry) >= depth) {
+                    int score = fromTable(TranspositionTable.score(entry), ply);
+                    int bound = TranspositionTable.bound(entry);
+                    if (bound == TranspositionTable.EXACT
+                            || bound == TranspositionTable.LOWER && score >= beta
+                            || bound == TranspositionTable.UPPER && score <= alpha) {
+                        return score;
+                    }
+                }
+            }
+
+            if (depth == 0) return evaluate(side);
+
+            int alphaBefore = alpha;
+            int best = -WIN - 1;
+            int bestMove = -1;
+            for (int cell : candidates(ttMove)) {
+                int score = tryMove(cell, side, depth, alpha, beta, ply);
+                if (timeUp) return 0;
+                if (score > best) {
+                    best = score;
+                    bestMove = cell;
+                }
+                if (best > alpha) alpha = best;
+                if (alpha >= beta) break;
+            }
+
+            int bound = best <= alphaBefore ? TranspositionTable.UPPER
+                    : best >= beta ? TranspositionTable.LOWER
+                    : TranspositionTable.EXACT;
+            table.store(hash, depth, toTable(best, ply), bound, bestMove);
+            return best;
+        }
+
+        /**
+         * Plays a move, scores the position it leads to, and takes it back
+         *
+         * @return the score of the move for the side playing it
+         */
+        private int tryMove(int cell, char side, int depth, int alpha, int beta, int ply) {
+            int row = cell / size;
+            int col = cell % size;
+            char result = board.place(row, col, side);
+            hash ^= key(cell, side) ^ O_TO_MOVE;
+
+            int score;
+            if (result == side) {
+                score = WIN - ply - 1;
+            } else if (result == BoardEngine.DRAW) {
+                score = 0;
+            } else {
+                score = -negamax(depth - 1, -beta, -alpha, side == 'X' ? 'O' : 'X', ply + 1);
+            }
+
+            hash ^= key(cell, side) ^ O_TO_MOVE;
+            board.remove(row, col);
+            return score;
+        }
+
+        /**
+         * The moves worth trying, the given one first
+         */
+        private int[] candidates(int first) {
+            int[] moves = new int[size * size];
+            int count = 0;
+            if (first < 0 || first >= moves.length || !board.isEmpty(first / size, first % size)) {
+                first = -1; // none, or from a colliding position
+            } else {
+                moves[count++] = first;
+            }
+
+            boolean fullWidth = size <= FULL_WIDTH_SIZE;
+            boolean anyStone = false;
+            for (int r = 0; r < size; r++) {
+                for (int c = 0; c < size; c++) {
+                    if (!board.isEmpty(r, c)) {
+                        anyStone = true;
+                    } else if (r * size + c != first && (fullWidth || hasNeighbour(r, c))) {
+                        moves[count++] = r * size + c;
+                    }
+                }
+            }
+            if (!anyStone && !fullWidth) {
+                moves[count++] = (size / 2) * size + size / 2;
+            }
+            return Arrays.copyOf(moves, count);
+        }
+
+        private boolean hasNeighbour(int row, int col) {
+            for (int r = Math.max(0, row - 1); r <= Math.min(size - 1, row + 1); r++) {
+                for (int c = Math.max(0, col - 1); c <= Math.min(size - 1, col + 1); c++) {
+                    if (!board.isEmpty(r, c)) return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Scores a position the search did not finish: every run of
+         * {@code winLength} cells holding only one side's symbols counts
+         * for that side, more the fuller it is
+         */
+        private int evaluate(char side) {
+            int score = 0;
+            for (int r = 0; r < size; r++) {
+                for (int c = 0; c < size; c++) {
+                    score += window(r, c, 0, 1) + window(r, c, 1, 0)
+                            + window(r, c, 1, 1) + window(r, c, 1, -1);
+                }
+            }
+            return side == 'X' ? score : -score;
+        }
+
+        /**
+         * @return the value of the run starting at (row, col), positive
+         *         for 'X'
+         */
+        private int window(int row, int col, int dr, int dc) {
+            int endRow = row + dr * (winLength - 1);
+            int endCol = col + dc * (winLength - 1);
+            if (!board.inBounds(endRow, endCol)) return 0;
+
+            int x = 0;
+            int o = 0;
+            for (int i = 0; i < winLength; i++) {
+                char cell = board.get(row + dr * i, col + dc * i);
+                if (cell == 'X') x++;
+                else if (cell == 'O') o++;
+            }
+            if (x > 0 && o > 0) return 0;
+            return x > 0 ? 1 << (2 * x) : o > 0 ? -(1 << (2 * o)) : 0;
+        }
+    }
+
+    /**
+     * Win scores are stored relative to the position, not the root
+     */
+    private static int toTable(int score, int ply) {
+        if (score > WIN_THRESHOLD) return score + ply;
+        if (score < -WIN_THRESHOLD) return score - ply;
+        return score;
+    }
+
+    private static int fromTable(int score, int ply) {
+        if (score > WIN_THRESHOLD) return score - ply;
+        if (score < -WIN_THRESHOLD) return score + ply;
+        return score;
+    }
+
+    /**
+     * The Zobrist key of a symbol in a cell
+     */
+    private static long key(int cell, char symbol) {
+        return mix(2L * cell + (symbol == 'X' ? 1 : 2));
+    }
+
+    /**
+     * The splitmix64 finalizer, a cheap and well-spread 64-bit hash
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
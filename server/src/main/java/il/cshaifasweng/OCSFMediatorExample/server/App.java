@@ -1,6 +1,7 @@
 package il.cshaifasweng.OCSFMediatorExample.server;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 
 /**
  * Hello world!
@@ -13,6 +14,11 @@ public class App
     public static void main( String[] args ) throws IOException
     {
         server = new SimpleServer(3000);
+        if (args.length > 0) {
+            // milliseconds a lone player waits before playing the bot
+            server.setBotDelay(Long.parseLong(args[0]));
+        }
+        server.openJournal(Paths.get("journal"));
         server.listen();
     }
 }
@@ -0,0 +1,86 @@
+package il.cshaifasweng.OCSFMediatorExample.server;
+
+/**
+ * The board and rules of one game: a square board on which two symbols,
+ * 'X' and 'O', are placed in turn until one of them has a line of the
+ * winning length or the board is full.
+ * <p>
+ * Implementations only look at the lines through the last placed
+ * symbol, so the cost of a move does not grow with the board.
+ */
+public interface BoardEngine {
+
+    /**
+     * Result of {@link #place} when the game goes on
+     */
+    char NONE = '\0';
+
+    /**
+     * Result of {@link #place} when the board is full without a winner
+     */
+    char DRAW = 'T';
+
+    /**
+     * Creates the engine for the given rules, using the bitboard for
+     * classic Tic-Tac-Toe.
+     *
+     * @param size      the number of rows and columns
+     * @param winLength the number of symbols in a row that wins
+     */
+    static BoardEngine create(int size, int winLength) {
+        if (size == XoBoard.SIZE && winLength == XoBoard.SIZE) {
+            return new XoBoard();
+        }
+        return new GridBoard(size, winLength);
+    }
+
+    /**
+     * @return the number of rows and columns
+     */
+    int getSize();
+
+    /**
+     * @return the number of symbols in a row that wins
+     */
+    int getWinLength();
+
+    /**
+     * @return true if (row, col) is on the board
+     */
+    boolean inBounds(int row, int col);
+
+    boolean isEmpty(int row, int col);
+
+    /**
+     * @return the symbol in a cell, or '\0' if it is empty
+     */
+    char get(int row, int col);
+
+    /**
+     * Puts a symbol in an empty cell and tells how the game stands.
+     *
+     * @return the symbol if it completed a line, {@link #DRAW} if the
+     *         board is now full, {@link #NONE} otherwise
+     * @throws IllegalArgumentException if the cell is out of bounds
+     *         or taken
+     */
+    char place(int row, int col, char symbol);
+
+    /**
+     * Empties a cell, undoing a {@link #place}; used by searches that
+     * try moves on a copy of the board
+     */
+    void remove(int row, int col);
+
+    void clear();
+
+    /**
+     * @return an independent board with the same rules and cells
+     */
+    BoardEngine copy();
+
+    /**
+     * @return a fresh copy of the board, '\0' for empty cells
+     */
+    char[][] toArray();
+}
@@ -0,0 +1,30 @@
+package il.cshaifasweng.OCSFMediatorExample.server;
+
+import java.util.function.IntConsumer;
+
+/**
+ * A computer player that can take a seat in a {@link GameRoom}.
+ * Moves are cell indexes, {@code row * size + col}. A bot keeps no
+ * state between moves of a game, so one bot serves any number of rooms.
+ */
+public interface Bot {
+
+    /**
+     * Chooses a move on the bot's own threads and hands it over from
+     * there; never blocks the caller.
+     *
+     * @param board  a board the bot may keep and modify
+     * @param symbol the symbol to play
+     * @param onMove called with the chosen cell, or -1 if the board is full
+     */
+    void play(BoardEngine board, char symbol, IntConsumer onMove);
+
+    /**
+     * Chooses a move, waiting for the search.
+     *
+     * @param board  the position, left as it was on return
+     * @param symbol the symbol to play
+     * @return the chosen cell, or -1 if the board is full
+     */
+    int bestMove(BoardEngine board, char symbol);
+}
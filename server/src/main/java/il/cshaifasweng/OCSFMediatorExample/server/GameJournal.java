@@ -0,0 +1,564 @@
+package il.cshaifasweng.OCSFMediatorExample.server;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * An append-only journal of the rooms opened and closed and of every
+ * move accepted, kept in memory-mapped segment files of a directory.
+ * <p>
+ * Rooms only queue their events: a single writer thread copies them
+ * into the mapped segment and forces it to disk once per batch, so one
+ * disk flush commits every event of the last couple of milliseconds and
+ * a move never waits for the disk. When a segment is full the writer
+ * continues in a new one.
+ * <p>
+ * A record is its payload's length and CRC-32, then the payload. The
+ * length is written last, so a record torn by a crash reads as the end
+ * of the journal. Opening a journal replays its records and rebuilds
+ * the games still in progress.
+ * <p>
+ * A {@link #snapshot} saves the state of every game in progress, so
+ * that opening the journal only loads the latest snapshot and replays
+ * the records written after it. Segments older than the snapshot are
+ * deleted.
+ * <p>
+ * A room's opening may carry the session tokens of its players, so
+ * that they can resume the game after a restart.
+ */
+public final class GameJournal implements Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 16 << 20;
+
+    /**
+     * How long events may wait to be committed together
+     */
+    private static final long COMMIT_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    /**
+     * Events written before a commit is forced even if more are queued
+     */
+    private static final int MAX_BATCH = 4096;
+
+    private static final int RECORD_HEADER = 8;
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+    private static final int SNAPSHOT_MAGIC = 0x584F5332; // "XOS2", with the session tokens
+    private static final int SNAPSHOT_MAGIC_V1 = 0x584F534E; // "XOSN"
+
+    private static final byte ROOM_OPENED = 1;
+    private static final byte MOVED = 2;
+    private static final byte ROOM_CLOSED = 3;
+    private static final byte SNAPSHOT_MARK = 4;
+
+    /**
+     * Queued to learn where the journal stands: the writer completes it
+     * with the segment index and offset of the mark record it writes
+     */
+    private static final class Mark {
+        final CompletableFuture<Long> position = new CompletableFuture<>();
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+
+    /**
+     * Events waiting for the writer, already encoded, and marks
+     */
+    private final Queue<Object> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The games found in progress when the journal was opened
+     */
+    private final Map<Long, RecoveredGame> recovered = new LinkedHashMap<>();
+    private long lastRoomId = 0;
+
+    private final CRC32 crc = new CRC32();
+    private int segmentIndex;
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+
+    private final Thread writer;
+    private volatile boolean running = true;
+    private volatile long appended = 0;
+    private volatile long commits = 0;
+    private volatile long snapshots = 0;
+
+    public GameJournal(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens the journal of a directory, creating it if needed, and
+     * rebuilds the games it holds.
+     *
+     * @param segmentSize the size of each segment file, in bytes
+     */
+    public GameJournal(Path directory, int segmentSize) throws IOException {
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException("segment too small: " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+
+        // Records before the snapshot's mark are already in the snapshot
+        long start = loadSnapshot();
+        int startSegment = (int) (start >>> 32);
+        int startOffset = (int) start;
+
+        List<Path> segments = listFiles(SEGMENT_SUFFIX);
+        segments.removeIf(path -> indexOf(path) < startSegment);
+        for (int i = 0; i < segments.size() - 1; i++) {
+            try (FileChannel old = FileChannel.open(segments.get(i), StandardOpenOption.READ)) {
+                int from = indexOf(segments.get(i)) == startSegment ? startOffset : 0;
+                replay(old.map(FileChannel.MapMode.READ_ONLY, 0, old.size()), from);
+            }
+        }
+
+        if (segments.isEmpty()) {
+            openSegment(Math.max(1, startSegment));
+        } else {
+            Path last = segments.get(segments.size() - 1);
+            segmentIndex = indexOf(last);
+            channel = FileChannel.open(last, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), segmentSize));
+            int end = replay(segment, segmentIndex == startSegment ? startOffset : 0);
+
+            // Clear what a crash left after the last whole record
+            if (end + 4 <= segment.capacity() && segment.getInt(end) != 0) {
+                for (int i = end; i < segment.capacity(); i++) segment.put(i, (byte) 0);
+                segment.force();
+            }
+            segment.position(end);
+        }
+
+        writer = new Thread(this::writeLoop, "journal writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @return the games that were neither closed nor finished, in the
+     *         order they were opened
+     */
+    public Collection<RecoveredGame> getRecoveredGames() {
+        return Collections.unmodifiableCollection(recovered.values());
+    }
+
+    /**
+     * @return the highest room id in the journal, 0 if none
+     */
+    public long getLastRoomId() {
+        return lastRoomId;
+    }
+
+    /**
+     * @return the events written so far
+     */
+    public long getAppendedCount() {
+        return appended;
+    }
+
+    /**
+     * @return the disk flushes so far, each committing a batch of events
+     */
+    public long getCommitCount() {
+        return commits;
+    }
+
+    /**
+     * @return the snapshots taken since the journal was opened
+     */
+    public long getSnapshotCount() {
+        return snapshots;
+    }
+
+    public void roomOpened(long roomId, int size, int winLength, char xPlayer, char firstTurn) {
+        roomOpened(roomId, size, winLength, xPlayer, firstTurn, null, null);
+    }
+
+    /**
+     * @param token1 the session token of player 1, or null
+     * @param token2 the session token of player 2, or null for the bot
+     */
+    public void roomOpened(long roomId, int size, int winLength, char xPlayer, char firstTurn,
+                           String token1, String token2) {
+        byte[] bytes1 = tokenBytes(token1);
+        byte[] bytes2 = tokenBytes(token2);
+        int tokens = token1 == null && token2 == null ? 0 : 4 + bytes1.length + bytes2.length;
+        ByteBuffer event = ByteBuffer.allocate(17 + tokens).put(ROOM_OPENED).putLong(roomId)
+                .putShort((short) size).putShort((short) winLength)
+                .putChar(xPlayer).putChar(firstTurn);
+        if (tokens > 0) {
+            event.putShort((short) bytes1.length).put(bytes1).putShort((short) bytes2.length).put(bytes2);
+        }
+        append(event.array());
+    }
+
+    /**
+     * @return the ASCII of a token, empty for none
+     */
+    private static byte[] tokenBytes(String token) {
+        return token == null ? new byte[0] : token.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return the token that follows in an event, null if empty
+     */
+    private static String readToken(ByteBuffer event) {
+        byte[] bytes = new byte[event.getShort()];
+        event.get(bytes);
+        return bytes.length == 0 ? null : new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    public void moved(long roomId, int seq, int row, int col, char symbol) {
+        append(ByteBuffer.allocate(19).put(MOVED).putLong(roomId).putInt(seq)
+                .putShort((short) row).putShort((short) col).putChar(symbol).array());
+    }
+
+    public void roomClosed(long roomId) {
+        append(ByteBuffer.allocate(9).put(ROOM_CLOSED).putLong(roomId).array());
+    }
+
+    private void append(byte[] event) {
+        if (running) pending.add(event);
+    }
+
+    /**
+     * Saves the games in progress and drops the segments they make
+     * unnecessary. The games are asked for once every event queued so
+     * far has its place in the journal, and may be collected while play
+     * goes on: events queued meanwhile are written after the snapshot's
+     * mark, and replaying a move already in the snapshot does nothing.
+     *
+     * @param games      supplies the state of each game in progress
+     * @param lastRoomId the highest room id given so far
+     */
+    public synchronized void snapshot(Supplier<? extends Iterable<RecoveredGame>> games, long lastRoomId)
+            throws IOException {
+        if (!running) throw new IOException("journal closed");
+
+        Mark mark = new Mark();
+        pending.add(mark);
+        LockSupport.unpark(writer);
+        long position;
+        try {
+            position = mark.position.join();
+        } catch (CompletionException e) {
+            throw new IOException("journal failed", e.getCause());
+        }
+        int markSegment = (int) (position >>> 32);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeLong(position);
+        out.writeLong(lastRoomId);
+        for (RecoveredGame game : games.get()) {
+            out.writeBoolean(true);
+            writeGame(out, game);
+        }
+        out.writeBoolean(false);
+        CRC32 check = new CRC32();
+        check.update(bytes.toByteArray());
+        out.writeLong(check.getValue());
+
+        // Written aside and renamed once on disk, so a snapshot is whole or absent
+        Path temporary = directory.resolve("snapshot.tmp");
+        try (FileChannel file = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) file.write(buffer);
+            file.force(true);
+        }
+        Path saved = directory.resolve(String.format("%010d-%010d%s", markSegment, (int) position, SNAPSHOT_SUFFIX));
+        Files.move(temporary, saved, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        for (Path old : listFiles(SNAPSHOT_SUFFIX)) {
+            if (!old.equals(saved)) Files.deleteIfExists(old);
+        }
+        for (Path old : listFiles(SEGMENT_SUFFIX)) {
+            if (indexOf(old) < markSegment) Files.deleteIfExists(old);
+        }
+        snapshots++;
+    }
+
+    /**
+     * A game as its room id, rules, symbols, turn, move count, the
+     * players' session tokens, and the cells of each symbol as a bitset
+     */
+    private static void writeGame(DataOutputStream out, RecoveredGame game) throws IOException {
+        BoardEngine board = game.getBoard();
+        int size = board.getSize();
+        out.writeLong(game.getRoomId());
+        out.writeShort(size);
+        out.writeShort(board.getWinLength());
+        out.writeChar(game.getXPlayer());
+        out.writeChar(game.getCurrentTurn());
+        out.writeInt(game.getSeq());
+        out.writeUTF(game.getToken1() == null ? "" : game.getToken1());
+        out.writeUTF(game.getToken2() == null ? "" : game.getToken2());
+        for (char symbol : new char[] {'X', 'O'}) {
+            byte[] bits = new byte[(size * size + 7) / 8];
+            for (int cell = 0; cell < size * size; cell++) {
+                if (board.get(cell / size, cell % size) == symbol) bits[cell >>> 3] |= 1 << (cell & 7);
+            }
+            out.write(bits);
+        }
+    }
+
+    /**
+     * @param withTokens false for a snapshot written before the tokens
+     *                   were kept
+     */
+    private static RecoveredGame readGame(DataInputStream in, boolean withTokens) throws IOException {
+        long roomId = in.readLong();
+        int size = in.readShort();
+        int winLength = in.readShort();
+        char xPlayer = in.readChar();
+        char currentTurn = in.readChar();
+        int seq = in.readInt();
+        String token1 = withTokens ? in.readUTF() : "";
+        String token2 = withTokens ? in.readUTF() : "";
+        BoardEngine board = BoardEngine.create(size, winLength);
+        for (char symbol : new char[] {'X', 'O'}) {
+            byte[] bits = new byte[(size * size + 7) / 8];
+            in.readFully(bits);
+            for (int cell = 0; cell < size * size; cell++) {
+                if ((bits[cell >>> 3] & 1 << (cell & 7)) != 0) board.place(cell / size, cell % size, symbol);
+            }
+        }
+        return new RecoveredGame(roomId, board, xPlayer, currentTurn, seq,
+                token1.isEmpty() ? null : token1, token2.isEmpty() ? null : token2);
+    }
+
+    /**
+     * Loads the latest snapshot into the recovered games
+     *
+     * @return the journal position to replay from, 0 for the beginning
+     */
+    private long loadSnapshot() throws IOException {
+        List<Path> snapshots = listFiles(SNAPSHOT_SUFFIX);
+        if (snapshots.isEmpty()) return 0;
+
+        Path latest = snapshots.get(snapshots.size() - 1);
+        CRC32 check = new CRC32();
+        try (InputStream file = Files.newInputStream(latest);
+             DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(file), check))) {
+            int magic = in.readInt();
+            if (magic != SNAPSHOT_MAGIC && magic != SNAPSHOT_MAGIC_V1) {
+                throw new IOException("not a snapshot: " + latest);
+            }
+            long position = in.readLong();
+            long snapshotRoomId = in.readLong();
+            List<RecoveredGame> games = new ArrayList<>();
+            while (in.readBoolean()) {
+                games.add(readGame(in, magic == SNAPSHOT_MAGIC));
+            }
+            long expected = check.getValue();
+            if (in.readLong() != expected) throw new IOException("corrupt snapshot: " + latest);
+
+            for (RecoveredGame game : games) {
+                recovered.put(game.getRoomId(), game);
+            }
+            lastRoomId = snapshotRoomId;
+            return position;
+        }
+    }
+
+    /**
+     * Writes the queued events and commits them, until closed
+     */
+    private void writeLoop() {
+        try {
+            while (running || !pending.isEmpty()) {
+                Object event = pending.poll();
+                if (event == null) {
+                    LockSupport.parkNanos(this, COMMIT_INTERVAL_NANOS);
+                    continue;
+                }
+
+                int batch = 0;
+                do {
+                    if (event instanceof Mark) {
+                        long position = write(new byte[] {SNAPSHOT_MARK, 0, 0, 0, 0, 0, 0, 0, 0});
+                        ((Mark) event).position.complete(position);
+                    } else {
+                        write((byte[]) event);
+                    }
+                    batch++;
+                } while (batch < MAX_BATCH && (event = pending.poll()) != null);
+
+                segment.force();
+                appended += batch;
+                commits++;
+            }
+        } catch (IOException e) {
+            running = false;
+            e.printStackTrace();
+            for (Object event; (event = pending.poll()) != null; ) {
+                if (event instanceof Mark) ((Mark) event).position.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * @return the segment index and offset of the record
+     */
+    private long write(byte[] event) throws IOException {
+        if (segment.remaining() < RECORD_HEADER + event.length) {
+            roll();
+        }
+        crc.reset();
+        crc.update(event);
+
+        int start = segment.position();
+        segment.position(start + RECORD_HEADER);
+        segment.put(event);
+        segment.putInt(start + 4, (int) crc.getValue());
+        segment.putInt(start, event.length);
+        return (long) segmentIndex << 32 | start;
+    }
+
+    /**
+     * Commits the full segment and continues in a new one
+     */
+    private void roll() throws IOException {
+        segment.force();
+        channel.close();
+        openSegment(segmentIndex + 1);
+    }
+
+    private void openSegment(int index) throws IOException {
+        segmentIndex = index;
+        channel = FileChannel.open(directory.resolve(String.format("%010d%s", index, SEGMENT_SUFFIX)),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    }
+
+    /**
+     * Applies the records of a segment to the recovered games
+     *
+     * @return the offset following the last whole record
+     */
+    private int replay(MappedByteBuffer buffer, int from) {
+        CRC32 check = new CRC32();
+        int position = from;
+        while (position + RECORD_HEADER <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || length > buffer.capacity() - position - RECORD_HEADER) break;
+
+            byte[] event = new byte[length];
+            buffer.position(position + RECORD_HEADER);
+            buffer.get(event);
+            check.reset();
+            check.update(event);
+            if ((int) check.getValue() != buffer.getInt(position + 4)) break;
+
+            apply(ByteBuffer.wrap(event));
+            position += RECORD_HEADER + length;
+        }
+        return position;
+    }
+
+    private void apply(ByteBuffer event) {
+        byte type = event.get();
+        long roomId = event.getLong();
+        lastRoomId = Math.max(lastRoomId, roomId);
+
+        switch (type) {
+            case ROOM_OPENED: {
+                int size = event.getShort();
+                int winLength = event.getShort();
+                char xPlayer = event.getChar();
+                char firstTurn = event.getChar();
+
+                // Openings journaled before the tokens were kept have none
+                String token1 = event.hasRemaining() ? readToken(event) : null;
+                String token2 = event.hasRemaining() ? readToken(event) : null;
+                recovered.put(roomId, new RecoveredGame(roomId, BoardEngine.create(size, winLength), xPlayer, firstTurn,
+                        token1, token2));
+                break;
+            }
+            case MOVED: {
+                RecoveredGame game = recovered.get(roomId);
+                int seq = event.getInt();
+                int row = event.getShort();
+                int col = event.getShort();
+                char symbol = event.getChar();
+                if (game != null) {
+                    game.replay(seq, row, col, symbol);
+                    if (game.isGameOver()) recovered.remove(roomId);
+                }
+                break;
+            }
+            case ROOM_CLOSED:
+                recovered.remove(roomId);
+                break;
+            case SNAPSHOT_MARK:
+                break;
+            default:
+                // Written by a later version; nothing to rebuild
+        }
+    }
+
+    private List<Path> listFiles(String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(suffix))
+                    .sorted()
+                    .collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+
+    private static int indexOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Commits the queued events and stops the writer
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        segment.force();
+        channel.close();
+    }
+}
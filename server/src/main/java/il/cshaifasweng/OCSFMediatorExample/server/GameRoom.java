@@ -0,0 +1,772 @@
+package il.cshaifasweng.OCSFMediatorExample.server;
+
+import il.cshaifasweng.OCSFMediatorExample.entities.BoardDelta;
+import il.cshaifasweng.OCSFMediatorExample.entities.BoardUpdate;
+import il.cshaifasweng.OCSFMediatorExample.entities.GameStart;
+import il.cshaifasweng.OCSFMediatorExample.entities.MoveRequest;
+import il.cshaifasweng.OCSFMediatorExample.server.ocsf.AbstractServer;
+import il.cshaifasweng.OCSFMediatorExample.server.ocsf.ConnectionToClient;
+import il.cshaifasweng.OCSFMediatorExample.server.ocsf.EncodedMessage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * One Tic-Tac-Toe match between two players paired by the
+ * {@link Matchmaker}. Every room has its own board and turn, so matches
+ * in different rooms never wait for each other. A room lives for one
+ * pairing: it closes when a player leaves.
+ * <p>
+ * The room is an actor: its public methods only queue a task in the
+ * room's {@link Mailbox}, and the tasks run one at a time on the shared
+ * room workers, so the room's state is never locked. Methods with a
+ * result hand it to a callback, run on the room's turn.
+ * <p>
+ * Players get the whole board once, when the game starts, and then a
+ * numbered {@link BoardDelta} per move; a player who misses a number
+ * asks for the board again with {@link #resync}. Moves carry the number
+ * their delta will have: a move sent again is answered with its delta,
+ * sent to its sender only, and played once.
+ * <p>
+ * The second seat may be taken by a {@link Bot}. The bot is
+ * given a copy of the board on its turn and thinks on its own executor;
+ * its move is applied when it comes back, unless the game has moved on.
+ * <p>
+ * With a {@link GameJournal}, the room records its opening, each move
+ * and its closing, so that an unfinished game survives a restart. The
+ * server then opens the room again with the game {@link #recover}ed and
+ * both seats empty, and the players resume it from new connections.
+ * <p>
+ * A player whose connection drops may be {@link #suspend}ed instead of
+ * leaving: the seat stays empty while the game goes on, until the player
+ * {@link #resume}s on a new connection and is sent the moves it missed.
+ * <p>
+ * Spectators {@link #watch} the room through {@link Spectators}: they get
+ * the whole board, then the same encoded deltas as the players, sent
+ * by the spectators' own threads.
+ * <p>
+ * A game between two players ends by updating their {@link Ratings}.
+ * <p>
+ * With {@link #setClocks}, each turn has a time limit and each player a
+ * thinking time for the whole game, both kept by one timer of the
+ * server's {@link TimingWheel}, armed again each turn. A player who lets
+ * a turn run out gets a random move played for it; one who runs out of
+ * thinking time loses the game.
+ */
+public class GameRoom {
+
+    private final long id;
+
+    /**
+     * Runs every change to the room, one at a time
+     */
+    private final Mailbox mailbox;
+
+    /**
+     * Used to encode board updates once for both players
+     */
+    private final AbstractServer server;
+
+    /**
+     * The two players of the match, null once the room is closed or
+     * while the player is suspended. player2 is also null when the bot
+     * plays the second seat.
+     */
+    private ConnectionToClient player1;
+    private ConnectionToClient player2;
+
+    /**
+     * The names the players of the current game are rated under, null
+     * for a guest. Kept after a player leaves, so that an abandoned
+     * game still counts.
+     */
+    private String name1;
+    private String name2;
+
+    /**
+     * The session tokens of the players, journaled with the game so that
+     * they can resume it after a restart; null for the bot's seat
+     */
+    private String token1;
+    private String token2;
+
+    /**
+     * The bot in the second seat, or null
+     */
+    private final Bot bot;
+
+    /**
+     * Where the game is recorded, or null
+     */
+    private final GameJournal journal;
+
+    /**
+     * Where board messages are published for spectators, or null
+     */
+    private final Spectators spectators;
+
+    /**
+     * Rates the players when a game ends, or null
+     */
+    private final Ratings ratings;
+
+    private final BoardEngine board;
+
+    /**
+     * Which player number ('1' or '2') is assigned symbol 'X'
+     */
+    private char xPlayer = '1';
+
+    /**
+     * Whose turn it is now: 'X' or 'O'
+     */
+    private char currentTurn = 'X';
+
+    /**
+     * The number of moves played in the current game
+     */
+    private int seq = 0;
+
+    /**
+     * The moves of the current game, moves.get(n - 1 - movesBefore)
+     * being move n, for players who resume
+     */
+    private final List<BoardDelta> moves = new ArrayList<>();
+
+    /**
+     * The moves played before the game was recovered, which are not in
+     * moves
+     */
+    private int movesBefore = 0;
+
+    /**
+     * The last delta as sent, for a player who sends its move again
+     */
+    private EncodedMessage lastDelta;
+
+    private boolean gameOver = false;
+
+    /**
+     * The winning symbol or 'T' for a draw, once the game is over
+     */
+    private char winner = '\0';
+
+    /**
+     * Set once a player has left; a closed room ignores moves
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Set once the game has started and been journaled
+     */
+    private boolean started = false;
+
+    /**
+     * Times the turns, or null when they are not timed
+     */
+    private TimingWheel wheel;
+    private TimingWheel.Timer turnTimer;
+
+    /**
+     * The longest a turn may take, and each player's thinking time for
+     * the whole game, in ns; 0 for no limit
+     */
+    private long turnNanos;
+    private long gameNanos;
+
+    /**
+     * The thinking time 'X' and 'O' have left
+     */
+    private long timeLeftX;
+    private long timeLeftO;
+
+    /**
+     * Set while a player's clock runs: when its turn started and when
+     * the turn runs out
+     */
+    private boolean clockRunning = false;
+    private long turnStartedAt;
+    private long turnDeadline;
+
+    public GameRoom(long id, AbstractServer server, Executor workers, BoardEngine board, GameJournal journal,
+                    Spectators spectators, Ratings ratings,
+                    ConnectionToClient player1, ConnectionToClient player2) {
+        this.id = id;
+        this.mailbox = new Mailbox(workers);
+        this.server = server;
+        this.board = board;
+        this.journal = journal;
+        this.spectators = spectators;
+        this.ratings = ratings;
+        this.player1 = player1;
+        this.player2 = player2;
+        this.bot = null;
+    }
+
+    /**
+     * Opens a room where a player faces the bot; bot games are not rated
+     */
+    public GameRoom(long id, AbstractServer server, Executor workers, BoardEngine board, GameJournal journal,
+                    Spectators spectators, ConnectionToClient player, Bot bot) {
+        this.id = id;
+        this.mailbox = new Mailbox(workers);
+        this.server = server;
+        this.board = board;
+        this.journal = journal;
+        this.spectators = spectators;
+        this.ratings = null;
+        this.player1 = player;
+        this.player2 = null;
+        this.bot = bot;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return the room's queue, for the time its tasks wait
+     */
+    public Mailbox getMailbox() {
+        return mailbox;
+    }
+
+    /**
+     * Times the turns of the players from the next game on; the bot is
+     * not timed
+     *
+     * @param turnMillis the longest a turn may take, 0 for no limit
+     * @param gameMillis each player's thinking time for the whole game,
+     *                   0 for no limit
+     */
+    public void setClocks(TimingWheel wheel, long turnMillis, long gameMillis) {
+        mailbox.execute(() -> {
+            this.wheel = wheel;
+            this.turnTimer = new TimingWheel.Timer(() -> mailbox.execute(this::turnExpired));
+            this.turnNanos = TimeUnit.MILLISECONDS.toNanos(turnMillis);
+            this.gameNanos = TimeUnit.MILLISECONDS.toNanos(gameMillis);
+        });
+    }
+
+    /**
+     * Sets the session tokens journaled with the next game
+     *
+     * @param token2 null when the bot plays the second seat
+     */
+    public void setSessionTokens(String token1, String token2) {
+        mailbox.execute(() -> {
+            this.token1 = token1;
+            this.token2 = token2;
+        });
+    }
+
+    /**
+     * Removes a player and closes the room. The remaining player, if
+     * any, is told and handed over so that it can be seated elsewhere.
+     *
+     * @param then given the remaining player, or null
+     */
+    public void leave(ConnectionToClient client, Consumer<ConnectionToClient> then) {
+        mailbox.execute(() -> {
+            char seat = seatOf(client);
+            then.accept(seat == '\0' ? null : close(seat));
+        });
+    }
+
+    /**
+     * Closes the room for a suspended player who did not come back
+     *
+     * @param seat the player number, '1' or '2'
+     * @param then given the remaining player, or null
+     */
+    public void abandon(char seat, Consumer<ConnectionToClient> then) {
+        mailbox.execute(() -> then.accept(closed ? null : close(seat)));
+    }
+
+    private ConnectionToClient close(char seat) {
+        stopClock();
+
+        // Leaving a game in progress loses it
+        boolean forfeited = started && !gameOver;
+        if (forfeited) {
+            gameOver = true;
+            winner = (seat == xPlayer) ? 'O' : 'X';
+            rate();
+        }
+
+        closed = true;
+        if (journal != null) journal.roomClosed(id);
+        if (spectators != null) spectators.close(id, "The game was abandoned: a player left.");
+        ConnectionToClient other = seat == '1' ? player2 : player1;
+        player1 = null;
+        player2 = null;
+
+        if (other != null) {
+            send(other, forfeited && ratings != null
+                    ? "Opponent disconnected: you win. Waiting for a new player..."
+                    : "Opponent disconnected. Waiting for a new player...", true);
+        }
+        return other;
+    }
+
+    /**
+     * @return whether the room was closed, as of its last task
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Empties the seat of a player whose connection dropped, keeping the
+     * game for its return. The opponent may still move in the meantime.
+     *
+     * @param then given the player number of the seat, or '\0' if there
+     *             is no game left to come back to
+     */
+    public void suspend(ConnectionToClient client, Consumer<Character> then) {
+        mailbox.execute(() -> then.accept(vacate(client)));
+    }
+
+    private char vacate(ConnectionToClient client) {
+        char seat = seatOf(client);
+        if (seat == '\0' || closed || gameOver) return '\0';
+
+        if (seat == '1') player1 = null;
+        else player2 = null;
+
+        ConnectionToClient other = seat == '1' ? player2 : player1;
+        if (other != null) {
+            send(other, "Opponent lost connection. Waiting for them to come back...", true);
+        }
+        return seat;
+    }
+
+    /**
+     * Seats a suspended player on its new connection and sends it the
+     * game: its symbol, then the moves after the last one it has, or the
+     * whole board if it has none of them
+     *
+     * @param seat    the player number given by {@link #suspend}
+     * @param lastSeq the number of the last move the player has, or -1
+     * @param then    given false if the room was closed meanwhile
+     */
+    public void resume(char seat, ConnectionToClient client, int lastSeq, Consumer<Boolean> then) {
+        mailbox.execute(() -> then.accept(reseat(seat, client, lastSeq)));
+    }
+
+    private boolean reseat(char seat, ConnectionToClient client, int lastSeq) {
+        if (closed || (seat == '1' ? player1 : player2) != null) return false;
+
+        if (seat == '1') player1 = client;
+        else player2 = client;
+        recordNames();
+
+        char symbol = seat == xPlayer ? 'X' : 'O';
+        send(client, new GameStart(symbol, symbol == currentTurn && !gameOver), false);
+        if (!gameOver && lastSeq >= movesBefore && lastSeq <= seq) {
+            for (int n = lastSeq; n < seq; n++) {
+                send(client, moves.get(n - movesBefore), false);
+            }
+            send(client, "Resumed.", true);
+        } else {
+            send(client, fullBoard(), true);
+        }
+
+        ConnectionToClient other = seat == '1' ? player2 : player1;
+        if (other != null) send(other, "Opponent is back.", true);
+
+        // A recovered game is timed from the first player back
+        if (!clockRunning) startClock();
+        return true;
+    }
+
+    /**
+     * Initializes a new game between the two players
+     */
+    public void startGame() {
+        mailbox.execute(this::newGame);
+    }
+
+    private void newGame() {
+        if (closed) return;
+
+        board.clear();
+        seq = 0;
+        moves.clear();
+        movesBefore = 0;
+        lastDelta = null;
+        timeLeftX = gameNanos;
+        timeLeftO = gameNanos;
+        gameOver = false;
+        winner = '\0';
+        Random rnd = new Random();
+
+        // Randomly decide who gets X
+        boolean player1IsX = rnd.nextBoolean();
+        xPlayer = player1IsX ? '1' : '2';
+
+        // Randomly decide who starts
+        currentTurn = rnd.nextBoolean() ? 'X' : 'O';
+
+        started = true;
+        name1 = null;
+        name2 = null;
+        recordNames();
+        if (journal != null) {
+            journal.roomOpened(id, board.getSize(), board.getWinLength(), xPlayer, currentTurn, token1, token2);
+        }
+
+        char p1Symbol = player1IsX ? 'X' : 'O';
+        char p2Symbol = player1IsX ? 'O' : 'X';
+
+        // Flushed with the initial board by broadcastBoardUpdate
+        send(player1, "Opponent found. Starting game...", false);
+        send(player1, new GameStart(p1Symbol, p1Symbol == currentTurn), false);
+        if (player2 != null) {
+            send(player2, "Opponent found. Starting game...", false);
+            send(player2, new GameStart(p2Symbol, p2Symbol == currentTurn), false);
+        }
+
+        // Send initial empty board; this flushes the whole batch
+        broadcast(fullBoard());
+        botTurn();
+        startClock();
+    }
+
+    /**
+     * Takes up a game found unfinished in the journal, played on the
+     * room's board, with both seats empty until the players
+     * {@link #resume}. The clocks start with the first player back; the
+     * bot moves at once if it is its turn.
+     */
+    public void recover(RecoveredGame game) {
+        mailbox.execute(() -> {
+            xPlayer = game.getXPlayer();
+            currentTurn = game.getCurrentTurn();
+            seq = game.getSeq();
+            movesBefore = seq;
+            token1 = game.getToken1();
+            token2 = game.getToken2();
+            timeLeftX = gameNanos;
+            timeLeftO = gameNanos;
+            started = true;
+            botTurn();
+        });
+    }
+
+    /**
+     * Copies the game for a journal snapshot, on the room's turn
+     *
+     * @return the game, or null if it is not in progress
+     */
+    public CompletableFuture<RecoveredGame> snapshot() {
+        CompletableFuture<RecoveredGame> copy = new CompletableFuture<>();
+        mailbox.execute(() -> copy.complete(started && !closed && !gameOver
+                ? new RecoveredGame(id, board.copy(), xPlayer, currentTurn, seq, token1, token2) : null));
+        return copy;
+    }
+
+    /**
+     * Lets a client watch the game from now on, starting with the whole
+     * board
+     *
+     * @param ifClosed run instead if the room is closed
+     */
+    public void watch(ConnectionToClient client, Runnable ifClosed) {
+        mailbox.execute(() -> {
+            if (closed || spectators == null) {
+                ifClosed.run();
+                return;
+            }
+            spectators.watch(id, client, fullBoard());
+        });
+    }
+
+    /**
+     * Rates the game under the names the players have now, after one
+     * logged in
+     */
+    public void updateNames() {
+        mailbox.execute(this::recordNames);
+    }
+
+    /**
+     * Sends the whole board to a player who lost track of the moves
+     */
+    public void resync(ConnectionToClient client) {
+        mailbox.execute(() -> {
+            if (symbolFor(client) == '\0') return;
+            send(client, fullBoard(), true);
+        });
+    }
+
+    /**
+     * Processes a single move in the game
+     */
+    public void handleMove(MoveRequest move, ConnectionToClient client) {
+        mailbox.execute(() -> move(move, client));
+    }
+
+    private void move(MoveRequest move, ConnectionToClient client) {
+
+        // A closed room ignores moves; a suspended opponent does not stop the game
+        if (closed) return;
+
+        int r = move.getRow();
+        int c = move.getCol();
+
+        // Bounds check
+        if (!board.inBounds(r, c)) return;
+
+        // Determine client's symbol
+        char clientSymbol = symbolFor(client);
+        if (clientSymbol == '\0') return;
+
+        // A numbered move already played is answered, not played again;
+        // one numbered ahead of the game is ignored
+        int moveSeq = move.getSeq();
+        if (moveSeq > 0 && moveSeq <= seq) {
+            BoardDelta played = moveSeq > movesBefore ? moves.get(moveSeq - 1 - movesBefore) : null;
+            if (played != null && played.getRow() == r && played.getCol() == c && played.getSymbol() == clientSymbol) {
+                send(client, moveSeq == seq && lastDelta != null ? lastDelta : played, true);
+            }
+            return;
+        }
+        if (moveSeq > seq + 1 || gameOver) return;
+
+        // Check turn
+        if (clientSymbol != currentTurn) {
+            send(client, "Not your turn", true);
+            return;
+        }
+
+        // Cell must be empty
+        if (!board.isEmpty(r, c)) return;
+
+        play(r, c, clientSymbol);
+    }
+
+    /**
+     * Applies the move the bot chose in the position numbered forSeq
+     */
+    private void botMoved(int forSeq, int cell) {
+        if (closed || gameOver || forSeq != seq || cell < 0) return;
+        play(cell / board.getSize(), cell % board.getSize(), botSymbol());
+    }
+
+    /**
+     * Applies a valid move and tells the players
+     */
+    private void play(int r, int c, char symbol) {
+        stopClock();
+
+        // Apply move; only the lines through this cell are checked
+        char result = board.place(r, c, symbol);
+        seq++;
+        if (journal != null) journal.moved(id, seq, r, c, symbol);
+        if (result != BoardEngine.NONE) {
+            gameOver = true;
+            winner = result; // winner or 'T' for a draw
+        } else {
+            // Continue game
+            currentTurn = (currentTurn == 'X') ? 'O' : 'X';
+        }
+        BoardDelta delta = new BoardDelta(seq, r, c, symbol, currentTurn, gameOver, winner);
+        moves.add(delta);
+        lastDelta = broadcast(delta);
+        if (gameOver) rate();
+        botTurn();
+        startClock();
+    }
+
+    /**
+     * Starts the clock of the player to move
+     */
+    private void startClock() {
+        if (wheel == null || closed || gameOver || (bot != null && currentTurn == botSymbol())) return;
+
+        long allowed = turnNanos > 0 ? turnNanos : Long.MAX_VALUE;
+        if (gameNanos > 0) allowed = Math.min(allowed, timeLeft(currentTurn));
+        if (allowed == Long.MAX_VALUE) return;
+
+        clockRunning = true;
+        turnStartedAt = System.nanoTime();
+        turnDeadline = turnStartedAt + allowed;
+        wheel.schedule(turnTimer, toMillis(allowed));
+    }
+
+    /**
+     * Stops the clock of the player to move, charging it the time taken
+     */
+    private void stopClock() {
+        if (!clockRunning) return;
+        clockRunning = false;
+        wheel.cancel(turnTimer);
+
+        // Never more than the turn allowed, however late the timer ran
+        long taken = Math.min(System.nanoTime(), turnDeadline) - turnStartedAt;
+        if (currentTurn == 'X') timeLeftX -= taken;
+        else timeLeftO -= taken;
+    }
+
+    /**
+     * Run by the timer when the turn may have run out
+     */
+    private void turnExpired() {
+        if (!clockRunning || closed || gameOver) return;
+
+        // The timer was armed for an earlier turn, or rounded the deadline
+        long early = turnDeadline - System.nanoTime();
+        if (early > 0) {
+            wheel.schedule(turnTimer, toMillis(early));
+            return;
+        }
+
+        char symbol = currentTurn;
+        stopClock();
+        if (gameNanos > 0 && timeLeft(symbol) <= 0) {
+            forfeit(symbol);
+        } else {
+            autoMove(symbol);
+        }
+    }
+
+    /**
+     * Plays a random move for a player whose turn ran out
+     */
+    private void autoMove(char symbol) {
+        int size = board.getSize();
+        int empty = 0;
+        for (int cell = 0; cell < size * size; cell++) {
+            if (board.isEmpty(cell / size, cell % size)) empty++;
+        }
+        if (empty == 0) return;
+
+        int pick = new Random().nextInt(empty);
+        for (int cell = 0; cell < size * size; cell++) {
+            if (board.isEmpty(cell / size, cell % size) && pick-- == 0) {
+                broadcastText("Time ran out: a move was played for " + symbol);
+                play(cell / size, cell % size, symbol);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Ends the game for a player out of thinking time: the opponent wins
+     */
+    private void forfeit(char symbol) {
+        gameOver = true;
+        winner = symbol == 'X' ? 'O' : 'X';
+        if (journal != null) journal.roomClosed(id);
+
+        broadcastText(symbol + " ran out of time.");
+        broadcast(fullBoard());
+        rate();
+    }
+
+    /**
+     * Records the result of the game that just ended
+     */
+    private void rate() {
+        if (ratings == null) return;
+        String x = xPlayer == '1' ? name1 : name2;
+        String o = xPlayer == '1' ? name2 : name1;
+        ratings.recordGame(x, o, winner);
+    }
+
+    /**
+     * Notes the names of the seated players; the name of an empty seat
+     * is kept
+     */
+    private void recordNames() {
+        if (ratings == null) return;
+        if (player1 != null && ratings.nameOf(player1) != null) name1 = ratings.nameOf(player1);
+        if (player2 != null && ratings.nameOf(player2) != null) name2 = ratings.nameOf(player2);
+    }
+
+    private long timeLeft(char symbol) {
+        return symbol == 'X' ? timeLeftX : timeLeftO;
+    }
+
+    private static long toMillis(long nanos) {
+        return (nanos + 999_999) / 1_000_000;
+    }
+
+    /**
+     * Lets the bot think if it is its move
+     */
+    private void botTurn() {
+        if (bot == null || closed || gameOver || currentTurn != botSymbol()) return;
+        int forSeq = seq;
+        bot.play(board.copy(), currentTurn, cell -> mailbox.execute(() -> botMoved(forSeq, cell)));
+    }
+
+    private char botSymbol() {
+        return xPlayer == '2' ? 'X' : 'O';
+    }
+
+    /**
+     * Returns the symbol ('X' or 'O') of a given client
+     */
+    private char symbolFor(ConnectionToClient client) {
+        char playerNum = seatOf(client);
+        if (playerNum == '\0') return '\0';
+        return (playerNum == xPlayer) ? 'X' : 'O';
+    }
+
+    /**
+     * @return the player number ('1' or '2') of a client, or '\0'
+     */
+    private char seatOf(ConnectionToClient client) {
+        if (client.equals(player1)) return '1';
+        if (client.equals(player2)) return '2';
+        return '\0';
+    }
+
+    private BoardUpdate fullBoard() {
+        return new BoardUpdate(board.toArray(), currentTurn, gameOver, winner, seq);
+    }
+
+    /**
+     * Sends a board message to both players and flushes
+     * whatever was buffered for them before; spectators get it too
+     *
+     * @return the message as sent, or null if it could not be encoded
+     */
+    private EncodedMessage broadcast(Object msg) {
+        try {
+            // Serialized once, the same bytes go to the players and spectators
+            EncodedMessage encoded = server.encode(msg);
+            if (player1 != null) send(player1, encoded, true);
+            if (player2 != null) send(player2, encoded, true);
+            if (spectators != null) spectators.publish(id, encoded);
+            return encoded;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Tells both players something, with their next board message
+     */
+    private void broadcastText(String text) {
+        if (player1 != null) send(player1, text, false);
+        if (player2 != null) send(player2, text, false);
+    }
+
+    private static void send(ConnectionToClient client, Object msg, boolean flush) {
+        try {
+            client.sendToClient(msg, flush);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package il.cshaifasweng.OCSFMediatorExample.server;
+
+import java.util.Arrays;
+
+/**
+ * An N x N board won by K symbols in a row, such as 15x15 gomoku.
+ * Each symbol is a bitset of N * N bits, so a 19x19 board takes six
+ * longs per symbol. After a move only the four lines through the new
+ * symbol are followed, at most K - 1 cells each way, which makes a
+ * move cost O(K) whatever the size of the board.
+ * <p>
+ * Not thread-safe; a board is only used on its room's turn.
+ */
+public final class GridBoard implements BoardEngine {
+
+    /**
+     * The directions of the lines through a cell: row, column and the
+     * two diagonals, as (row step, column step)
+     */
+    private static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+
+    private final int size;
+    private final int winLength;
+    private final long[] xBits;
+    private final long[] oBits;
+    private int stones = 0;
+
+    /**
+     * @param size      the number of rows and columns, 1 to 256
+     * @param winLength the number of symbols in a row that wins, 1 to size
+     */
+    public GridBoard(int size, int winLength) {
+        if (size < 1 || size > 256 || winLength < 1 || winLength > size) {
+            throw new IllegalArgumentException("invalid rules: " + size + "x" + size + ", " + winLength + " in a row");
+        }
+        this.size = size;
+        this.winLength = winLength;
+        this.xBits = new long[(size * size + 63) / 64];
+        this.oBits = new long[xBits.length];
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public int getWinLength() {
+        return winLength;
+    }
+
+    @Override
+    public boolean inBounds(int row, int col) {
+        return row >= 0 && row < size && col >= 0 && col < size;
+    }
+
+    @Override
+    public boolean isEmpty(int row, int col) {
+        int cell = row * size + col;
+        return ((xBits[cell >>> 6] | oBits[cell >>> 6]) & (1L << cell)) == 0;
+    }
+
+    @Override
+    public char get(int row, int col) {
+        int cell = row * size + col;
+        if (isSet(xBits, cell)) return 'X';
+        if (isSet(oBits, cell)) return 'O';
+        return '\0';
+    }
+
+    @Override
+    public char place(int row, int col, char symbol) {
+        if (!inBounds(row, col) || !isEmpty(row, col)) {
+            throw new IllegalArgumentException("cell not available: " + row + "," + col);
+        }
+
+        long[] bits = symbol == 'X' ? xBits : oBits;
+        int cell = row * size + col;
+        bits[cell >>> 6] |= 1L << cell;
+        stones++;
+
+        for (int[] d : DIRECTIONS) {
+            int run = 1 + count(bits, row, col, d[0], d[1]) + count(bits, row, col, -d[0], -d[1]);
+            if (run >= winLength) return symbol;
+        }
+        return stones == size * size ? DRAW : NONE;
+    }
+
+    /**
+     * Counts the symbols of the same bitset following (row, col) in one
+     * direction, stopping once a win is certain
+     */
+    private int count(long[] bits, int row, int col, int dr, int dc) {
+        int n = 0;
+        int r = row + dr;
+        int c = col + dc;
+        while (n < winLength - 1 && inBounds(r, c) && isSet(bits, r * size + c)) {
+            n++;
+            r += dr;
+            c += dc;
+        }
+        return n;
+    }
+
+    private static boolean isSet(long[] bits, int cell) {
+        return (bits[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    @Override
+    public void remove(int row, int col) {
+        if (isEmpty(row, col)) return;
+        int cell = row * size + col;
+        xBits[cell >>> 6] &= ~(1L << cell);
+        oBits[cell >>> 6] &= ~(1L << cell);
+        stones--;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(xBits, 0);
+        Arrays.fill(oBits, 0);
+        stones = 0;
+    }
+
+    @Override
+    public GridBoard copy() {
+        GridBoard copy = new GridBoard(size, winLength);
+        System.arraycopy(xBits, 0, copy.xBits, 0, xBits.length);
+        System.arraycopy(oBits, 0, copy.oBits, 0, oBits.length);
+        copy.stones = stones;
+        return copy;
+    }
+
+    @Override
+    public char[][] toArray() {
+        char[][] cells = new char[size][size];
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                cells[r][c] = get(r, c);
+            }
+        }
+        return cells;
+    }
+}
@@ -0,0 +1,181 @@
+package il.cshaifasweng.OCSFMediatorExample.server;
+
+import il.cshaifasweng.OCSFMediatorExample.entities.LeaderboardPage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The rated players in rank order: highest rating first, ties broken by
+ * name. An indexable skip list: every link also records how many
+ * players it skips, so the rank of a player and the player at a rank
+ * are both found in O(log n), and a page of k players in O(log n + k),
+ * without ever sorting.
+ * <p>
+ * Not thread-safe; {@link Ratings} guards it.
+ */
+public class Leaderboard {
+
+    private static final int MAX_LEVEL = 32;
+
+    /**
+     * A node gains each further level with this probability
+     */
+    private static final int LEVEL_ODDS = 4;
+
+    private static final class Node {
+        final String name;
+        final int rating;
+        final Node[] next;
+
+        /**
+         * span[i]: the number of ranks from this node to next[i], or to
+         * the end of the list if next[i] is null
+         */
+        final int[] span;
+
+        Node(String name, int rating, int levels) {
+            this.name = name;
+            this.rating = rating;
+            this.next = new Node[levels];
+            this.span = new int[levels];
+        }
+
+        /**
+         * @return negative if this node ranks before the player
+         */
+        int compareTo(String name, int rating) {
+            if (this.rating != rating) return this.rating > rating ? -1 : 1;
+            return this.name.compareTo(name);
+        }
+    }
+
+    private final Node head = new Node(null, 0, MAX_LEVEL);
+    private int levels = 1;
+    private int size = 0;
+
+    /**
+     * @return the number of players
+     */
+    public int size() {
+        return size;
+    }
+
+    public void add(String name, int rating) {
+        Node[] update = new Node[MAX_LEVEL];
+        int[] rank = new int[MAX_LEVEL];
+        Node x = head;
+        for (int i = levels - 1; i >= 0; i--) {
+            rank[i] = i == levels - 1 ? 0 : rank[i + 1];
+            while (x.next[i] != null && x.next[i].compareTo(name, rating) < 0) {
+                rank[i] += x.span[i];
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+
+        int level = randomLevel();
+        if (level > levels) {
+            for (int i = levels; i < level; i++) {
+                rank[i] = 0;
+                update[i] = head;
+                head.span[i] = size;
+            }
+            levels = level;
+        }
+
+        Node node = new Node(name, rating, level);
+        for (int i = 0; i < level; i++) {
+            node.next[i] = update[i].next[i];
+            update[i].next[i] = node;
+            node.span[i] = update[i].span[i] - (rank[0] - rank[i]);
+            update[i].span[i] = rank[0] - rank[i] + 1;
+        }
+        // The higher links above the new node now skip one more player
+        for (int i = level; i < levels; i++) {
+            update[i].span[i]++;
+        }
+        size++;
+    }
+
+    /**
+     * @return false if the player was not listed with that rating
+     */
+    public boolean remove(String name, int rating) {
+        Node[] update = new Node[MAX_LEVEL];
+        Node x = head;
+        for (int i = levels - 1; i >= 0; i--) {
+            while (x.next[i] != null && x.next[i].compareTo(name, rating) < 0) {
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+
+        Node node = x.next[0];
+        if (node == null || node.compareTo(name, rating) != 0) return false;
+
+        for (int i = 0; i < levels; i++) {
+            if (update[i].next[i] == node) {
+                update[i].span[i] += node.span[i] - 1;
+                update[i].next[i] = node.next[i];
+            } else {
+                update[i].span[i]--;
+            }
+        }
+        while (levels > 1 && head.next[levels - 1] == null) {
+            levels--;
+        }
+        size--;
+        return true;
+    }
+
+    /**
+     * @return the rank of the player, 1 for the best, or 0 if it is not
+     *         listed with that rating
+     */
+    public int rankOf(String name, int rating) {
+        int rank = 0;
+        Node x = head;
+        for (int i = levels - 1; i >= 0; i--) {
+            while (x.next[i] != null && x.next[i].compareTo(name, rating) <= 0) {
+                rank += x.span[i];
+                x = x.next[i];
+            }
+        }
+        return x != head && x.compareTo(name, rating) == 0 ? rank : 0;
+    }
+
+    /**
+     * @param fromRank the rank of the first player, 1 for the best
+     * @return up to count players from that rank on
+     */
+    public List<LeaderboardPage.Entry> page(int fromRank, int count) {
+        List<LeaderboardPage.Entry> entries = new ArrayList<>(Math.max(0, Math.min(count, size - fromRank + 1)));
+        if (fromRank < 1 || fromRank > size || count <= 0) return entries;
+
+        // Descend to the node at fromRank
+        int rank = 0;
+        Node x = head;
+        for (int i = levels - 1; i >= 0; i--) {
+            while (x.next[i] != null && rank + x.span[i] <= fromRank) {
+                rank += x.span[i];
+                x = x.next[i];
+            }
+        }
+
+        for (; x != null && entries.size() < count; x = x.next[0]) {
+            entries.add(new LeaderboardPage.Entry(rank++, x.name, x.rating));
+        }
+        return entries;
+    }
+
+    private static int randomLevel() {
+        int level = 1;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (level < MAX_LEVEL && random.nextInt(LEVEL_ODDS) == 0) {
+            level++;
+        }
+        return level;
+    }
+}
@@ -0,0 +1,152 @@
+package il.cshaifasweng.OCSFMediatorExample.server;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The inbox of a {@link GameRoom}: every change to the room is a task
+ * queued here, and the tasks run one at a time, in the order queued, on
+ * a worker pool shared by all rooms. Only one worker owns a mailbox at
+ * a time, so the room's state needs no lock.
+ * <p>
+ * The queue is lock-free for many producers and one consumer: a producer
+ * swaps its node in as the tail with one atomic exchange and then links
+ * the previous tail to it, and only the owner moves the head. Whoever
+ * queues a task into an idle mailbox hands the mailbox to the pool.
+ * <p>
+ * An owner runs a batch of tasks at most, then puts the mailbox at the
+ * back of the pool's queue if tasks remain. The rooms thus take turns on
+ * the workers, and a busy room cannot starve the others.
+ * <p>
+ * The time each task waits, from being queued to running, is measured,
+ * so that a room falling behind shows.
+ */
+public class Mailbox implements Executor {
+
+    /**
+     * Tasks an owner runs before giving the worker to other rooms
+     */
+    private static final int DRAIN_BATCH = 32;
+
+    private static final class Node {
+        Runnable task;
+        final long queuedAt;
+        volatile Node next;
+
+        Node(Runnable task, long queuedAt) {
+            this.task = task;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    private final Executor workers;
+
+    /**
+     * The last task run, or a stub; only touched by the owner
+     */
+    private Node head = new Node(null, 0);
+
+    private final AtomicReference<Node> tail = new AtomicReference<>(head);
+
+    /**
+     * Set while a drain is queued or running; its compare-and-set hands
+     * the mailbox from one owner to the next
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * Written by the owner only
+     */
+    private volatile long tasksRun;
+    private volatile long totalWaitNanos;
+    private volatile long maxWaitNanos;
+
+    /**
+     * @param workers runs the tasks of every room's mailbox
+     */
+    public Mailbox(Executor workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * Queues a task; never blocks
+     *
+     * @throws RejectedExecutionException if the workers were shut down
+     */
+    @Override
+    public void execute(Runnable task) {
+        Node node = new Node(task, System.nanoTime());
+        tail.getAndSet(node).next = node;
+        if (scheduled.compareAndSet(false, true)) submit();
+    }
+
+    private void submit() {
+        try {
+            workers.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            // Shut down: nobody owns the mailbox, its tasks never run
+            scheduled.set(false);
+            throw e;
+        }
+    }
+
+    private void drain() {
+        try {
+            for (int i = 0; i < DRAIN_BATCH; i++) {
+                Node next = head.next;
+                if (next == null) break; // empty, or a producer is still linking
+                head = next;
+                Runnable task = next.task;
+                next.task = null;
+
+                long waited = System.nanoTime() - next.queuedAt;
+                tasksRun++;
+                totalWaitNanos += waited;
+                if (waited > maxWaitNanos) maxWaitNanos = waited;
+
+                // Whatever a task throws, even an Error, the room goes on
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                }
+            }
+        } finally {
+            scheduled.set(false);
+        }
+
+        // A task linked while the flag was still set is drained here; one
+        // linked later is handed to the pool by its producer
+        if (head.next != null && scheduled.compareAndSet(false, true)) {
+            try {
+                submit();
+            } catch (RejectedExecutionException e) {
+                // The workers are shutting down with the server
+            }
+        }
+    }
+
+    /**
+     * @return the number of tasks run so far
+     */
+    public long getTasksRun() {
+        return tasksRun;
+    }
+
+    /**
+     * @return the mean time a task waited to run, in ns
+     */
+    public long getMeanWaitNanos() {
+        long run = tasksRun;
+        return run == 0 ? 0 : totalWaitNanos / run;
+    }
+
+    /**
+     * @return the longest time a task waited to run, in ns
+     */
+    public long getMaxWaitNanos() {
+        return maxWaitNanos;
+    }
+}
@@ -0,0 +1,155 @@
+package il.cshaifasweng.OCSFMediatorExample.server;
+
+import il.cshaifasweng.OCSFMediatorExample.server.ocsf.ConnectionToClient;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Pairs waiting players without locks. Players are grouped in skill
+ * buckets and only paired within their bucket. Since a bucket pairs a
+ * player as soon as a second one arrives, it never holds more than one
+ * waiting player: each bucket is a single slot updated by
+ * compare-and-set, which makes joins cheap even in bursts.
+ * <p>
+ * The pair is handed to the match handler on the thread of the player
+ * that completed it.
+ */
+public class Matchmaker {
+
+    /**
+     * A player waiting in a bucket
+     */
+    private static final class Ticket {
+        final ConnectionToClient client;
+        final int bucket;
+        final long enqueuedAt = System.nanoTime();
+
+        Ticket(ConnectionToClient client, int bucket) {
+            this.client = client;
+            this.bucket = bucket;
+        }
+    }
+
+    private final BiConsumer<ConnectionToClient, ConnectionToClient> onMatch;
+
+    /**
+     * The waiting player of each bucket, empty when nobody waits
+     */
+    private final Map<Integer, AtomicReference<Ticket>> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * The ticket of each waiting player, by connection id, for cancelling
+     */
+    private final Map<Long, Ticket> tickets = new ConcurrentHashMap<>();
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder matches = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * @param onMatch called with the player who waited and the one who
+     *                completed the pair
+     */
+    public Matchmaker(BiConsumer<ConnectionToClient, ConnectionToClient> onMatch) {
+        this.onMatch = onMatch;
+    }
+
+    /**
+     * Pairs a player with the one waiting in the same bucket, or makes
+     * it wait there.
+     *
+     * @param bucket the skill bucket, e.g. a rating range; players of
+     *               different buckets are never paired
+     */
+    public void enqueue(ConnectionToClient client, int bucket) {
+        AtomicReference<Ticket> slot = buckets.computeIfAbsent(bucket, b -> new AtomicReference<>());
+        Ticket ticket = new Ticket(client, bucket);
+
+        while (true) {
+            Ticket waiter = slot.get();
+            if (waiter == null) {
+                tickets.put(client.getConnectionId(), ticket);
+                waiting.incrementAndGet();
+                if (slot.compareAndSet(null, ticket)) return;
+                // Someone took the slot first: undo and look again
+                tickets.remove(client.getConnectionId(), ticket);
+                waiting.decrementAndGet();
+            } else if (slot.compareAndSet(waiter, null)) {
+                // Emptying the slot took the ticket; cancel() can no longer
+                tickets.remove(waiter.client.getConnectionId(), waiter);
+                waiting.decrementAndGet();
+                recordMatch(waiter);
+                onMatch.accept(waiter.client, client);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes a player from its bucket, typically on disconnection.
+     *
+     * @return false if the player was not waiting, e.g. because it has
+     *         just been paired
+     */
+    public boolean cancel(ConnectionToClient client) {
+        Ticket ticket = tickets.get(client.getConnectionId());
+        if (ticket == null) return false;
+
+        // Only the thread emptying the slot owns the ticket
+        if (!buckets.get(ticket.bucket).compareAndSet(ticket, null)) return false;
+        tickets.remove(client.getConnectionId(), ticket);
+        waiting.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return true if the player waits for an opponent
+     */
+    public boolean isWaiting(ConnectionToClient client) {
+        return tickets.containsKey(client.getConnectionId());
+    }
+
+    private void recordMatch(Ticket waiter) {
+        long waited = System.nanoTime() - waiter.enqueuedAt;
+        matches.increment();
+        totalWaitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+    }
+
+    /**
+     * @return the number of players waiting for an opponent
+     */
+    public int getWaitingCount() {
+        return waiting.get();
+    }
+
+    /**
+     * @return the number of pairs formed so far
+     */
+    public long getMatchCount() {
+        return matches.sum();
+    }
+
+    /**
+     * @return the mean time the first player of a pair waited, in ms
+     */
+    public double getAverageWaitMillis() {
+        long count = matches.sum();
+        return count == 0 ? 0 : totalWaitNanos.sum() / (count * 1e6);
+    }
+
+    /**
+     * @return the longest time a player waited before being paired, in ms
+     */
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+}
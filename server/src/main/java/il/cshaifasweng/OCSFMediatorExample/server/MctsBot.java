@@ -0,0 +1,359 @@
+package il.cshaifasweng.OCSFMediatorExample.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.IntConsumer;
+
+/**
+ * A computer player for large boards, choosing moves by Monte Carlo tree
+ * search: random games are played out from the position, and the tree of
+ * moves grows toward the ones that won most often (UCT).
+ * <p>
+ * One search spreads over every thread of a {@link ForkJoinPool}, all
+ * growing the same tree until the time budget runs out. The tree takes
+ * no locks: a node's visits and rewards are one packed long updated with
+ * a single atomic add, and its children are published by
+ * compare-and-set. A thread counts its visit on the way down, so others
+ * see the path as tried and spread out over different moves.
+ * <p>
+ * Before searching, the bot looks for wins, double threats and the
+ * opponent's, which random playouts often overlook. On boards larger
+ * than 5x5 the tree only holds moves next to a symbol.
+ */
+public final class MctsBot implements Bot {
+
+    /**
+     * The UCT exploration constant, about sqrt(2)
+     */
+    private static final double EXPLORATION = 1.4;
+
+    /**
+     * Visits a leaf needs before its children are added
+     */
+    private static final int EXPAND_AFTER = 2;
+
+    /**
+     * Largest board on which every empty cell is a child in the tree
+     */
+    private static final int FULL_WIDTH_SIZE = 5;
+
+    /**
+     * Draws a playout makes to find a cell next to a symbol before
+     * settling for any empty cell
+     */
+    private static final int PLAYOUT_TRIES = 4;
+
+    private final ForkJoinPool pool;
+    private final long thinkNanos;
+
+    /**
+     * @param pool        runs the playouts, one search task per thread
+     * @param thinkMillis the time a move may take
+     */
+    public MctsBot(ForkJoinPool pool, long thinkMillis) {
+        this.pool = pool;
+        this.thinkNanos = thinkMillis * 1_000_000;
+    }
+
+    @Override
+    public void play(BoardEngine board, char symbol, IntConsumer onMove) {
+        pool.execute(() -> onMove.accept(bestMove(board, symbol)));
+    }
+
+    @Override
+    public int bestMove(BoardEngine board, char symbol) {
+        // The clock starts before the scan for forced moves, which may
+        // use half the time on a large board
+        long start = System.nanoTime();
+        long deadline = start + thinkNanos;
+        int forced = forcedMove(board, symbol, start + thinkNanos / 2);
+        if (forced >= 0) return forced;
+
+        Node root = new Node(null, -1, other(symbol));
+        root.children = root.expand(board);
+        if (root.children.length == 0) return -1;
+
+        List<Playouts> tasks = new ArrayList<>();
+        for (int i = 0; i < pool.getParallelism(); i++) {
+            tasks.add(new Playouts(board, root, deadline));
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+
+        // The most visited move is the most reliable one
+        Node best = root.children[0];
+        for (Node child : root.children) {
+            if (child.visits() > best.visits()) best = child;
+        }
+        return best.cell;
+    }
+
+    /**
+     * Finds the moves that settle the game within two plies: a win, a
+     * block, a double threat, or the block of the opponent's. Wins and
+     * blocks are always found; double threats only until the deadline.
+     *
+     * @return the cell to play, or -1 to search
+     */
+    private static int forcedMove(BoardEngine board, char symbol, long deadline) {
+        char opponent = other(symbol);
+        int move = winningCell(board, symbol, -1);
+        if (move < 0) move = winningCell(board, opponent, -1);
+        if (move < 0) move = doubleThreat(board, symbol, deadline);
+        if (move < 0) move = doubleThreat(board, opponent, deadline);
+        return move;
+    }
+
+    /**
+     * @return a cell after skip where the symbol wins at once, or -1
+     */
+    private static int winningCell(BoardEngine board, char symbol, int skip) {
+        int size = board.getSize();
+        for (int cell = skip + 1; cell < size * size; cell++) {
+            int r = cell / size;
+            int c = cell % size;
+            if (!board.isEmpty(r, c)) continue;
+            char result = board.place(r, c, symbol);
+            board.remove(r, c);
+            if (result == symbol) return cell;
+        }
+        return -1;
+    }
+
+    /**
+     * @return a cell where the symbol threatens to win in two places at
+     *         once, which cannot both be blocked, or -1, also when the
+     *         deadline passes first
+     */
+    private static int doubleThreat(BoardEngine board, char symbol, long deadline) {
+        int size = board.getSize();
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                if (!board.isEmpty(r, c) || !hasNeighbour(board, r, c)) continue;
+                if (System.nanoTime() - deadline >= 0) return -1;
+                if (board.place(r, c, symbol) != BoardEngine.NONE) {
+                    board.remove(r, c);
+                    continue;
+                }
+                int first = winningCell(board, symbol, -1);
+                boolean twice = first >= 0 && winningCell(board, symbol, first) >= 0;
+                board.remove(r, c);
+                if (twice) return r * size + c;
+            }
+        }
+        return -1;
+    }
+
+    private static char other(char symbol) {
+        return symbol == 'X' ? 'O' : 'X';
+    }
+
+    /**
+     * A move in the tree, with the statistics of the games through it
+     */
+    private static final class Node {
+        private static final AtomicLongFieldUpdater<Node> STATS =
+                AtomicLongFieldUpdater.newUpdater(Node.class, "stats");
+        private static final AtomicReferenceFieldUpdater<Node, Node[]> CHILDREN =
+                AtomicReferenceFieldUpdater.newUpdater(Node.class, Node[].class, "children");
+
+        final Node parent;
+        final int cell;
+
+        /**
+         * The symbol that played this move; rewards are counted for it
+         */
+        final char mover;
+
+        /**
+         * Visits in the high 32 bits, rewards in the low 32 bits: two
+         * per win and one per draw
+         */
+        volatile long stats;
+
+        /**
+         * Null until the node is expanded
+         */
+        volatile Node[] children;
+
+        /**
+         * The result if this move ends the game, '\0' otherwise
+         */
+        volatile char result = BoardEngine.NONE;
+
+        Node(Node parent, int cell, char mover) {
+            this.parent = parent;
+            this.cell = cell;
+            this.mover = mover;
+        }
+
+        int visits() {
+            return (int) (stats >>> 32);
+        }
+
+        void addVisit() {
+            STATS.getAndAdd(this, 1L << 32);
+        }
+
+        void addReward(int reward) {
+            STATS.getAndAdd(this, reward);
+        }
+
+        /**
+         * @return the children for the position after this move, as
+         *         published by whichever thread got there first
+         */
+        Node[] children(BoardEngine board) {
+            Node[] mine = expand(board);
+            return CHILDREN.compareAndSet(this, null, mine) ? mine : children;
+        }
+
+        Node[] expand(BoardEngine board) {
+            int size = board.getSize();
+            boolean fullWidth = size <= FULL_WIDTH_SIZE;
+            char next = other(mover);
+            List<Node> moves = new ArrayList<>();
+            for (int r = 0; r < size; r++) {
+                for (int c = 0; c < size; c++) {
+                    if (board.isEmpty(r, c) && (fullWidth || hasNeighbour(board, r, c))) {
+                        moves.add(new Node(this, r * size + c, next));
+                    }
+                }
+            }
+            if (moves.isEmpty() && board.isEmpty(size / 2, size / 2)) {
+                moves.add(new Node(this, (size / 2) * size + size / 2, next)); // first move
+            }
+            return moves.toArray(new Node[0]);
+        }
+
+        /**
+         * @return the child with the best upper confidence bound
+         */
+        Node select(Node[] kids) {
+            double logVisits = Math.log(Math.max(1, visits()));
+            Node best = null;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for (Node child : kids) {
+                long s = child.stats;
+                int n = (int) (s >>> 32);
+                if (n == 0) return child;
+                double value = (int) s / (2.0 * n) + EXPLORATION * Math.sqrt(logVisits / n);
+                if (value > bestValue) {
+                    bestValue = value;
+                    best = child;
+                }
+            }
+            return best;
+        }
+    }
+
+    private static boolean hasNeighbour(BoardEngine board, int row, int col) {
+        int size = board.getSize();
+        for (int r = Math.max(0, row - 1); r <= Math.min(size - 1, row + 1); r++) {
+            for (int c = Math.max(0, col - 1); c <= Math.min(size - 1, col + 1); c++) {
+                if (!board.isEmpty(r, c)) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * One thread's share of a search: selects a path down the shared
+     * tree, plays a random game from its end and scores the path, until
+     * the deadline
+     */
+    private static final class Playouts extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BoardEngine position;
+        private final Node root;
+        private final long deadline;
+
+        Playouts(BoardEngine position, Node root, long deadline) {
+            this.position = position.copy();
+            this.root = root;
+            this.deadline = deadline;
+        }
+
+        @Override
+        protected void compute() {
+            int size = position.getSize();
+            int[] empty = new int[size * size];
+            do {
+                BoardEngine board = position.copy();
+                Node node = root;
+                char result = BoardEngine.NONE;
+                root.addVisit();
+
+                // Selection and expansion
+                while (true) {
+                    Node[] kids = node.children;
+                    if (kids == null) {
+                        if (node.visits() < EXPAND_AFTER) break;
+                        kids = node.children(board);
+                    }
+                    if (kids.length == 0) break;
+
+                    node = node.select(kids);
+                    node.addVisit();
+                    result = node.result;
+                    if (result != BoardEngine.NONE) break;
+                    result = board.place(node.cell / size, node.cell % size, node.mover);
+                    if (result != BoardEngine.NONE) {
+                        node.result = result;
+                        break;
+                    }
+                }
+
+                // Simulation
+                if (result == BoardEngine.NONE) {
+                    result = playout(board, other(node.mover), empty);
+                }
+
+                // Backpropagation; visits were counted on the way down
+                for (Node n = node; n != null; n = n.parent) {
+                    n.addReward(result == n.mover ? 2 : result == BoardEngine.DRAW ? 1 : 0);
+                }
+            } while (System.nanoTime() - deadline < 0);
+        }
+
+        /**
+         * Plays random moves until the game ends, mostly next to the
+         * symbols already placed, where games are decided
+         *
+         * @return the winner, or {@link BoardEngine#DRAW}
+         */
+        private static char playout(BoardEngine board, char side, int[] empty) {
+            int size = board.getSize();
+            int count = 0;
+            for (int r = 0; r < size; r++) {
+                for (int c = 0; c < size; c++) {
+                    if (board.isEmpty(r, c)) empty[count++] = r * size + c;
+                }
+            }
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (count > 0) {
+                int i = random.nextInt(count);
+                for (int tries = 0; tries < PLAYOUT_TRIES && !hasNeighbour(board, empty[i] / size, empty[i] % size); tries++) {
+                    i = random.nextInt(count);
+                }
+                int cell = empty[i];
+                empty[i] = empty[--count];
+                char result = board.place(cell / size, cell % size, side);
+                if (result != BoardEngine.NONE) return result;
+                side = other(side);
+            }
+            return BoardEngine.DRAW;
+        }
+    }
+}
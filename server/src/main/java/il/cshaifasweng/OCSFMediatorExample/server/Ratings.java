@@ -0,0 +1,159 @@
+package il.cshaifasweng.OCSFMediatorExample.server;
+
+import il.cshaifasweng.OCSFMediatorExample.entities.LeaderboardPage;
+import il.cshaifasweng.OCSFMediatorExample.server.ocsf.ConnectionToClient;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The Elo ratings of the players who logged in, and the
+ * {@link Leaderboard} ranking them.
+ * <p>
+ * A finished game between two logged-in players moves rating points
+ * from the loser to the winner, more when the loser was expected to
+ * win; a game abandoned by a player is lost by that player. Bot games
+ * and games with a guest are not rated.
+ * <p>
+ * The leaderboard is read far more often than games end, so reads
+ * share a read lock and only the end of a rated game takes the write
+ * lock, for two O(log n) updates.
+ */
+public class Ratings {
+
+    public static final int INITIAL_RATING = 1500;
+
+    /**
+     * The most points a game can move
+     */
+    private static final int K_FACTOR = 32;
+
+    /**
+     * Players listed per leaderboard page at most
+     */
+    public static final int MAX_PAGE = 100;
+
+    /**
+     * The name of each logged-in client, by connection id
+     */
+    private final Map<Long, String> names = new ConcurrentHashMap<>();
+
+    /**
+     * Guarded by lock, like the leaderboard
+     */
+    private final Map<String, Integer> ratings = new HashMap<>();
+    private final Leaderboard leaderboard = new Leaderboard();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Rates a client's games under a name from now on
+     *
+     * @return the player's rating
+     */
+    public int login(ConnectionToClient client, String name) {
+        names.put(client.getConnectionId(), name);
+        return getRating(name);
+    }
+
+    /**
+     * Forgets a client's name; its rating stays
+     */
+    public void logout(ConnectionToClient client) {
+        names.remove(client.getConnectionId());
+    }
+
+    /**
+     * @return the name the client logged in with, or null
+     */
+    public String nameOf(ConnectionToClient client) {
+        return names.get(client.getConnectionId());
+    }
+
+    /**
+     * @return the rating a client is paired by: a guest's is the
+     *         initial rating
+     */
+    public int getRating(ConnectionToClient client) {
+        String name = nameOf(client);
+        return name == null ? INITIAL_RATING : getRating(name);
+    }
+
+    /**
+     * @return the rating of a player, who need not have played yet
+     */
+    public int getRating(String name) {
+        lock.readLock().lock();
+        try {
+            return ratings.getOrDefault(name, INITIAL_RATING);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rates a finished game, if both players were logged in under
+     * different names. The names are those the players had during the
+     * game, since a player may have disconnected before its end.
+     *
+     * @param x      the name of the player of 'X', or null for a guest
+     * @param o      the name of the player of 'O', or null for a guest
+     * @param winner 'X', 'O', or {@link BoardEngine#DRAW}
+     */
+    public void recordGame(String x, String o, char winner) {
+        if (x == null || o == null || x.equals(o)) return;
+
+        double xScore = winner == 'X' ? 1 : winner == 'O' ? 0 : 0.5;
+        lock.writeLock().lock();
+        try {
+            int xRating = ratings.getOrDefault(x, INITIAL_RATING);
+            int oRating = ratings.getOrDefault(o, INITIAL_RATING);
+            int points = (int) Math.round(K_FACTOR * (xScore - expectedScore(xRating, oRating)));
+            update(x, xRating, xRating + points);
+            update(o, oRating, oRating - points);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the chance that a player rated a beats one rated b, with
+     *         draws as half a win
+     */
+    static double expectedScore(int a, int b) {
+        return 1 / (1 + Math.pow(10, (b - a) / 400.0));
+    }
+
+    private void update(String name, int oldRating, int newRating) {
+        if (ratings.put(name, newRating) != null) {
+            leaderboard.remove(name, oldRating);
+        }
+        leaderboard.add(name, newRating);
+    }
+
+    /**
+     * @param client the client asking, whose own rank is included
+     * @param offset the number of better players to skip
+     * @param count  the players wanted, up to {@link #MAX_PAGE}
+     */
+    public LeaderboardPage page(ConnectionToClient client, int offset, int count) {
+        String name = nameOf(client);
+        lock.readLock().lock();
+        try {
+            List<LeaderboardPage.Entry> entries =
+                    leaderboard.page(Math.max(0, offset) + 1, Math.min(count, MAX_PAGE));
+
+            LeaderboardPage.Entry you = null;
+            Integer rating = name == null ? null : ratings.get(name);
+            if (rating != null) {
+                you = new LeaderboardPage.Entry(leaderboard.rankOf(name, rating), name, rating);
+            }
+            return new LeaderboardPage(entries, leaderboard.size(), you);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
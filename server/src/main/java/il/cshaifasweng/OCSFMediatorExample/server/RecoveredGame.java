@@ -0,0 +1,112 @@
+package il.cshaifasweng.OCSFMediatorExample.server;
+
+/**
+ * A game rebuilt from the {@link GameJournal}: the room's rules and
+ * symbols, with every journaled move played again on a fresh board or
+ * on the board saved by the latest snapshot. Rooms also describe their
+ * game this way for snapshots.
+ * <p>
+ * The session tokens of the players let them take their seats back
+ * after a restart; a game journaled without them cannot be resumed.
+ */
+public final class RecoveredGame {
+
+    private final long roomId;
+    private final BoardEngine board;
+    private final char xPlayer;
+
+    /**
+     * The session tokens of player 1 and player 2, null when unknown
+     * and for the bot's seat
+     */
+    private final String token1;
+    private final String token2;
+
+    private char currentTurn;
+    private int seq = 0;
+    private char winner = BoardEngine.NONE;
+
+    RecoveredGame(long roomId, BoardEngine board, char xPlayer, char firstTurn, String token1, String token2) {
+        this(roomId, board, xPlayer, firstTurn, 0, token1, token2);
+    }
+
+    /**
+     * A game in progress as saved by a snapshot
+     */
+    RecoveredGame(long roomId, BoardEngine board, char xPlayer, char currentTurn, int seq,
+                  String token1, String token2) {
+        this.roomId = roomId;
+        this.board = board;
+        this.xPlayer = xPlayer;
+        this.token1 = token1;
+        this.token2 = token2;
+        this.currentTurn = currentTurn;
+        this.seq = seq;
+    }
+
+    /**
+     * Plays a journaled move again; moves out of sequence are ignored
+     */
+    void replay(int moveSeq, int row, int col, char symbol) {
+        if (moveSeq != seq + 1 || isGameOver() || !board.inBounds(row, col) || !board.isEmpty(row, col)) {
+            return;
+        }
+        seq = moveSeq;
+        winner = board.place(row, col, symbol);
+        if (winner == BoardEngine.NONE) {
+            currentTurn = symbol == 'X' ? 'O' : 'X';
+        }
+    }
+
+    public long getRoomId() {
+        return roomId;
+    }
+
+    public BoardEngine getBoard() {
+        return board;
+    }
+
+    /**
+     * @return which player number ('1' or '2') plays 'X'
+     */
+    public char getXPlayer() {
+        return xPlayer;
+    }
+
+    /**
+     * @return the session token of player 1, or null
+     */
+    public String getToken1() {
+        return token1;
+    }
+
+    /**
+     * @return the session token of player 2, or null for the bot
+     */
+    public String getToken2() {
+        return token2;
+    }
+
+    public char getCurrentTurn() {
+        return currentTurn;
+    }
+
+    /**
+     * @return the number of moves played
+     */
+    public int getSeq() {
+        return seq;
+    }
+
+    public boolean isGameOver() {
+        return winner != BoardEngine.NONE;
+    }
+
+    /**
+     * @return the winning symbol, {@link BoardEngine#DRAW}, or '\0'
+     *         while the game goes on
+     */
+    public char getWinner() {
+        return winner;
+    }
+}
@@ -1,93 +1,567 @@
 package il.cshaifasweng.OCSFMediatorExample.server;
 
+import il.cshaifasweng.OCSFMediatorExample.entities.BoardDelta;
 import il.cshaifasweng.OCSFMediatorExample.entities.BoardUpdate;
 import il.cshaifasweng.OCSFMediatorExample.entities.GameStart;
+import il.cshaifasweng.OCSFMediatorExample.entities.LeaderboardRequest;
 import il.cshaifasweng.OCSFMediatorExample.entities.MoveRequest;
+import il.cshaifasweng.OCSFMediatorExample.entities.ResumeRequest;
+import il.cshaifasweng.OCSFMediatorExample.entities.SessionToken;
 import il.cshaifasweng.OCSFMediatorExample.entities.Warning;
+import il.cshaifasweng.OCSFMediatorExample.entities.wire.CompactCodec;
+import il.cshaifasweng.OCSFMediatorExample.entities.wire.ResetPolicy;
 import il.cshaifasweng.OCSFMediatorExample.server.ocsf.AbstractServer;
 import il.cshaifasweng.OCSFMediatorExample.server.ocsf.ConnectionToClient;
-import il.cshaifasweng.OCSFMediatorExample.server.ocsf.SubscribedClient;
+import il.cshaifasweng.OCSFMediatorExample.server.ocsf.OverflowPolicy;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Random;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * SimpleServer implements a Tic-Tac-Toe (XO) game server.
- * It supports exactly two players at a time and communicates
- * with clients using OCSF and EventBus.
+ * Every pair of players gets its own {@link GameRoom}, so any number of
+ * games run at once, and any client may watch a room instead of playing.
+ * A player whose connection drops keeps its seat for a grace period and
+ * may resume the game from a new connection with its session token.
+ * A new connection is only paired once it asks to "#play", so that one
+ * resuming a game is never seated in another first.
+ * It communicates with clients using OCSF and EventBus.
  */
 public class SimpleServer extends AbstractServer {
 
     /**
-     * List of subscribed clients (used for EventBus demo, not game logic)
+     * The rooms in play, by room id
      */
-    private static final ArrayList<SubscribedClient> SubscribersList = new ArrayList<>();
+    private final Map<Long, GameRoom> rooms = new ConcurrentHashMap<>();
 
     /**
-     * References to the two players connected to the game
+     * The room of each seated client, by connection id
      */
-    private ConnectionToClient player1 = null;
-    private ConnectionToClient player2 = null;
+    private final Map<Long, GameRoom> roomOf = new ConcurrentHashMap<>();
+
+    private final AtomicLong lastRoomId = new AtomicLong();
+
+    /**
+     * Runs the tasks of every room's mailbox, the rooms taking turns
+     */
+    private final ExecutorService roomWorkers;
+
+    /**
+     * The clients watching rooms; the rooms publish their moves to them
+     */
+    private final Spectators spectators;
+
+    /**
+     * Sends the rooms' moves to their spectators
+     */
+    private final ExecutorService fanOut;
+
+    /**
+     * The session token of each client, by connection id
+     */
+    private final Map<Long, String> tokens = new ConcurrentHashMap<>();
+
+    /**
+     * The seats held for dropped players, by session token
+     */
+    private final Map<String, Reservation> reserved = new ConcurrentHashMap<>();
+
+    private final SecureRandom tokenSource = new SecureRandom();
+
+    private static final int TOKEN_BYTES = 16;
+
+    /**
+     * How long the seat of a dropped player is held; 0 closes the room
+     * at once
+     */
+    private volatile long resumeGraceMillis = 30_000;
+
+    /**
+     * A seat held for a dropped player
+     */
+    private static final class Reservation {
+        final GameRoom room;
+        final char seat;
+
+        /**
+         * The name the player logged in with, or null
+         */
+        final String name;
+
+        /**
+         * Set before the reservation is published
+         */
+        TimingWheel.Timer expiry;
+
+        Reservation(GameRoom room, char seat, String name) {
+            this.room = room;
+            this.seat = seat;
+            this.name = name;
+        }
+    }
+
+    /**
+     * The players' ratings and the leaderboard
+     */
+    private final Ratings ratings = new Ratings();
+
+    /**
+     * The rating points covered by one matchmaking bucket
+     */
+    private static final int RATING_BUCKET_WIDTH = 200;
+
+    /**
+     * Rooms listed in answer to "#rooms"
+     */
+    private static final int ROOM_LIST_LIMIT = 50;
+
+    /**
+     * Records the games of new rooms, or null
+     */
+    private volatile GameJournal journal;
+
+    /**
+     * Saves the games in progress so that a restart replays only the
+     * end of the journal
+     */
+    private ScheduledFuture<?> snapshots;
+
+    private static final long SNAPSHOT_INTERVAL_SECONDS = 60;
+
+    /**
+     * The board of new rooms: classic 3x3 Tic-Tac-Toe by default
+     */
+    private volatile int boardSize = 3;
+    private volatile int winLength = 3;
+
+    /**
+     * Pairs the players waiting for a game into new rooms
+     */
+    private final Matchmaker matchmaker = new Matchmaker(this::openRoom);
+
+    /**
+     * Runs the bot searches and the bot timers, away from the
+     * connection threads. Its daemon threads live as long as the server.
+     */
+    private final ScheduledExecutorService computePool;
+
+    /**
+     * The computer opponent of all bot rooms: alpha-beta search where
+     * it can see far enough, tree search on larger boards
+     */
+    private final AlphaBetaBot alphaBetaBot;
+    private final MctsBot mctsBot;
+
+    /**
+     * Runs the playouts of the tree search bot
+     */
+    private final ForkJoinPool mctsPool;
+
+    /**
+     * Keeps the turn clocks of every room, the bot delays and the held
+     * seats; its tasks run on the compute pool
+     */
+    private final TimingWheel wheel;
+
+    private static final long WHEEL_TICK_MILLIS = 100;
+
+    /**
+     * Enough slots for a turn of the wheel to cover the usual turn limit
+     */
+    private static final int WHEEL_SLOTS = 512;
+
+    /**
+     * The longest a turn may take and each player's thinking time for a
+     * game, 0 for no limit
+     */
+    private volatile long turnMillis = 30_000;
+    private volatile long gameMillis = 300_000;
 
     /**
-     * Game board: '\0' = empty, 'X' or 'O'
+     * How long a player waits for a human opponent before being given
+     * the bot; negative when there are no bots
      */
-    private final char[][] board = new char[3][3];
+    private volatile long botDelayMillis = -1;
 
     /**
-     * Which player number ('1' or '2') is assigned symbol 'X'
+     * The bot deadline of each waiting player, by connection id; a
+     * player has at most one
      */
-    private char xPlayer = '1';
+    private final Map<Long, BotDeadline> botDeadlines = new ConcurrentHashMap<>();
+
+    /**
+     * Gives a waiting player the bot once its bot delay runs out
+     */
+    private final class BotDeadline implements Runnable {
+        final ConnectionToClient client;
+        final TimingWheel.Timer timer = new TimingWheel.Timer(this);
+
+        BotDeadline(ConnectionToClient client) {
+            this.client = client;
+        }
+
+        @Override
+        public void run() {
+            // A deadline replaced or cancelled meanwhile does nothing
+            if (botDeadlines.remove(client.getConnectionId(), this)) seatWithBot(client);
+        }
+    }
 
     /**
-     * Whose turn it is now: 'X' or 'O'
+     * Positions kept by the bot's transposition table: 16 bytes each
      */
-    private char currentTurn = 'X';
+    private static final int BOT_TABLE_CAPACITY = 1 << 18;
+
+    /**
+     * The time the bot may take for a move
+     */
+    private static final long BOT_THINK_MILLIS = 200;
+    private static final long MCTS_THINK_MILLIS = 50;
+
+    /**
+     * Largest board played with alpha-beta search
+     */
+    private static final int ALPHA_BETA_MAX_SIZE = 5;
+
+    /**
+     * Messages a client may have pending before it is considered stuck.
+     * A client that falls this far behind is disconnected rather than
+     * sent a game it can no longer follow.
+     */
+    private static final int OUTBOUND_QUEUE_CAPACITY = 64;
 
     public SimpleServer(int port) {
         super(port);
+
+        // Writes happen on each connection's own writer, so a slow
+        // client never delays the game under the server monitor
+        setOutboundQueue(OUTBOUND_QUEUE_CAPACITY, OverflowPolicy.DISCONNECT);
+
+        // Messages are handled in parallel, one lane per core; a move
+        // only queues a task in its room's mailbox
+        setDispatchLanes(Runtime.getRuntime().availableProcessors());
+
+        // Game messages travel as compact frames; the client uses the same codec
+        setCodec(CompactCodec.INSTANCE);
+
+        // Should the object streams be used instead, game messages are never
+        // modified once sent and need no stream reset
+        setResetPolicy(ResetPolicy.mutableOnly(BoardUpdate.class, BoardDelta.class, GameStart.class));
+
+        // A fair queue: a room with more tasks left goes back behind the others
+        AtomicInteger roomThreads = new AtomicInteger();
+        roomWorkers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "room-" + roomThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        AtomicInteger botThreads = new AtomicInteger();
+        computePool = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "bot-" + botThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Spectators are sent the moves on their own threads, so that a
+        // crowded room neither delays its players nor the bots
+        AtomicInteger fanOutThreads = new AtomicInteger();
+        fanOut = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "fanout-" + fanOutThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        spectators = new Spectators(fanOut);
+
+        wheel = new TimingWheel(WHEEL_TICK_MILLIS, WHEEL_SLOTS, computePool);
+
+        alphaBetaBot = new AlphaBetaBot(new TranspositionTable(BOT_TABLE_CAPACITY), computePool, BOT_THINK_MILLIS);
+
+        // Playouts of one move are spread over every core
+        mctsPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        mctsBot = new MctsBot(mctsPool, MCTS_THINK_MILLIS);
     }
 
     /**
-     * Called automatically by OCSF when a client connects
+     * @return the number of rooms in play
      */
-    @Override
-    protected void clientConnected(ConnectionToClient client) {
-        super.clientConnected(client);
+    public int getRoomCount() {
+        return rooms.size();
+    }
 
-        // First connected client becomes Player 1
-        if (player1 == null) {
-            player1 = client;
-            try {
-                client.sendToClient("Connected as Player 1. Waiting for Player 2...");
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    /**
+     * Sets the board of the rooms opened from now on, e.g. 15 and 5
+     * for gomoku. Clients must be able to show boards of that size.
+     *
+     * @param size      the number of rows and columns
+     * @param winLength the number of symbols in a row that wins
+     */
+    public void setBoardRules(int size, int winLength) {
+        BoardEngine.create(size, winLength); // rejects invalid rules now
+        this.boardSize = size;
+        this.winLength = winLength;
+    }
+
+    /**
+     * Lets players who wait too long play the bot: at once if the delay
+     * is 0, never if it is negative (the default).
+     *
+     * @param millis how long a player waits for a human opponent
+     */
+    public void setBotDelay(long millis) {
+        this.botDelayMillis = millis;
+    }
+
+    /**
+     * Times the players' turns in the rooms opened from now on. A player
+     * whose turn runs out gets a random move; one who runs out of
+     * thinking time loses.
+     *
+     * @param turnMillis the longest a turn may take, 0 for no limit
+     * @param gameMillis each player's thinking time for a game, 0 for
+     *                   no limit
+     */
+    public void setTurnClocks(long turnMillis, long gameMillis) {
+        this.turnMillis = turnMillis;
+        this.gameMillis = gameMillis;
+    }
+
+    /**
+     * Sets how long a dropped player's seat is held for it to resume;
+     * 0 closes its room at once, as before sessions
+     */
+    public void setResumeGrace(long millis) {
+        this.resumeGraceMillis = millis;
+    }
+
+    /**
+     * Opens the journal of a directory and records the games of the
+     * rooms opened from now on. The games that were in progress when
+     * the server last stopped get their rooms back, with the seats held
+     * for the resume grace period: the players resume them with their
+     * session tokens, as after a dropped connection, and a game nobody
+     * comes back to is closed. Call before listening.
+     *
+     * @param directory where the journal segments are kept
+     */
+    public void openJournal(Path directory) throws IOException {
+        GameJournal opened = new GameJournal(directory);
+        lastRoomId.accumulateAndGet(opened.getLastRoomId(), Math::max);
+        journal = opened;
+        for (RecoveredGame game : opened.getRecoveredGames()) {
+            recoverRoom(game);
+        }
+        snapshots = computePool.scheduleWithFixedDelay(this::snapshot,
+                SNAPSHOT_INTERVAL_SECONDS, SNAPSHOT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Opens the room of a game found unfinished in the journal, and
+     * holds its seats for the players. A game journaled without their
+     * session tokens cannot be resumed, and is closed.
+     */
+    private void recoverRoom(RecoveredGame game) {
+        BoardEngine board = game.getBoard();
+        GameRoom room = game.getToken2() == null
+                ? new GameRoom(game.getRoomId(), this, roomWorkers, board, journal, spectators, null,
+                        botFor(board.getSize()))
+                : new GameRoom(game.getRoomId(), this, roomWorkers, board, journal, spectators, ratings,
+                        null, null);
+        room.setClocks(wheel, turnMillis, gameMillis);
+        room.recover(game);
+
+        long grace = resumeGraceMillis;
+        if (game.getToken1() == null || grace <= 0) {
+            room.abandon('1', other -> { });
             return;
         }
+        rooms.put(room.getId(), room);
+        reserve(game.getToken1(), new Reservation(room, '1', null), grace);
+        if (game.getToken2() != null) {
+            reserve(game.getToken2(), new Reservation(room, '2', null), grace);
+        }
+    }
+
+    /**
+     * Saves every game in progress to the journal, room by room while
+     * play goes on
+     */
+    public void snapshot() {
+        GameJournal current = journal;
+        if (current == null) return;
+        try {
+            current.snapshot(() -> {
+                // Every room copies its game on its own turn, all at once
+                List<CompletableFuture<RecoveredGame>> copies = rooms.values().stream()
+                        .map(GameRoom::snapshot).collect(Collectors.toList());
+                return copies.stream().map(CompletableFuture::join).filter(Objects::nonNull)
+                        .collect(Collectors.toList());
+            }, lastRoomId.get());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-        // Second connected client becomes Player 2
-        if (player2 == null) {
-            player2 = client;
+    /**
+     * Commits the journal and stops the server's threads when the
+     * server closes; a closed server does not listen again
+     */
+    @Override
+    protected void serverClosed() {
+        GameJournal closing = journal;
+        journal = null;
+        if (snapshots != null) snapshots.cancel(false);
+        if (closing != null) {
             try {
-                client.sendToClient("Connected as Player 2. Starting game...");
+                closing.close();
             } catch (IOException e) {
                 e.printStackTrace();
             }
-            startGame();
-            return;
         }
 
-        // If already two players are connected, reject additional clients
+        // Timers armed now never run; queued tasks still do
+        wheel.close();
+        computePool.shutdown();
+        roomWorkers.shutdown();
+        fanOut.shutdown();
+        mctsPool.shutdown();
+    }
+
+    public Ratings getRatings() {
+        return ratings;
+    }
+
+    public Matchmaker getMatchmaker() {
+        return matchmaker;
+    }
+
+    /**
+     * Called automatically by OCSF when a client connects
+     */
+    @Override
+    protected void clientConnected(ConnectionToClient client) {
+        super.clientConnected(client);
+
+        byte[] secret = new byte[TOKEN_BYTES];
+        tokenSource.nextBytes(secret);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(secret);
+        tokens.put(client.getConnectionId(), token);
+
         try {
-            client.sendToClient("Game already has 2 players. Try later.");
-            client.close();
+            client.sendToClient(new SessionToken(token), false);
+            client.sendToClient("Connected.");
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Queues a client for the next game, in the skill bucket of its
+     * rating. With bots on, the player gets the bot if nobody shows up
+     * within the bot delay.
+     */
+    private void findOpponent(ConnectionToClient client) {
+        matchmaker.enqueue(client, bucketOf(client));
+
+        // A client that ended while being queued missed its own cancel
+        if (getClientConnection(client.getConnectionId()) == null) {
+            matchmaker.cancel(client);
+            return;
+        }
+
+        long delay = botDelayMillis;
+        if (delay == 0) {
+            seatWithBot(client);
+        } else if (delay > 0) {
+            BotDeadline deadline = new BotDeadline(client);
+            BotDeadline previous = botDeadlines.put(client.getConnectionId(), deadline);
+            if (previous != null) wheel.cancel(previous.timer);
+            wheel.schedule(deadline.timer, delay);
+        }
+    }
+
+    /**
+     * Cancels the bot deadline of a player that stopped waiting
+     */
+    private void cancelBotDeadline(ConnectionToClient client) {
+        BotDeadline deadline = botDeadlines.remove(client.getConnectionId());
+        if (deadline != null) wheel.cancel(deadline.timer);
+    }
+
+    /**
+     * @return the matchmaking bucket of a client: players are only
+     *         paired with players rated in the same band, guests with
+     *         new players
+     */
+    private int bucketOf(ConnectionToClient client) {
+        return ratings.getRating(client) / RATING_BUCKET_WIDTH;
+    }
+
+    /**
+     * Gives a player the bot as opponent if still waiting
+     */
+    private void seatWithBot(ConnectionToClient client) {
+        cancelBotDeadline(client);
+
+        // Fails if the player was paired or left in the meantime
+        if (!matchmaker.cancel(client)) return;
+
+        int size = boardSize;
+        GameRoom room = new GameRoom(lastRoomId.incrementAndGet(), this, roomWorkers,
+                BoardEngine.create(size, winLength), journal, spectators, client, botFor(size));
+        room.setClocks(wheel, turnMillis, gameMillis);
+        room.setSessionTokens(tokens.get(client.getConnectionId()), null);
+        rooms.put(room.getId(), room);
+        roomOf.put(client.getConnectionId(), room);
+        room.startGame();
+
+        if (getClientConnection(client.getConnectionId()) == null) releaseSeat(client);
+    }
+
+    /**
+     * @return the bot for a board size: alpha-beta search where it can
+     *         see far enough, tree search beyond
+     */
+    private Bot botFor(int size) {
+        return size <= ALPHA_BETA_MAX_SIZE ? alphaBetaBot : mctsBot;
+    }
+
+    /**
+     * Called by the matchmaker with each new pair of players
+     */
+    private void openRoom(ConnectionToClient player1, ConnectionToClient player2) {
+        cancelBotDeadline(player1);
+        cancelBotDeadline(player2);
+
+        GameRoom room = new GameRoom(lastRoomId.incrementAndGet(), this, roomWorkers,
+                BoardEngine.create(boardSize, winLength), journal, spectators, ratings, player1, player2);
+        room.setClocks(wheel, turnMillis, gameMillis);
+        room.setSessionTokens(tokens.get(player1.getConnectionId()), tokens.get(player2.getConnectionId()));
+        rooms.put(room.getId(), room);
+        roomOf.put(player1.getConnectionId(), room);
+        roomOf.put(player2.getConnectionId(), room);
+        room.startGame();
+
+        // A player that ended while being paired missed its own release
+        if (getClientConnection(player1.getConnectionId()) == null) releaseSeat(player1);
+        if (getClientConnection(player2.getConnectionId()) == null) releaseSeat(player2);
+    }
+
     /**
      * Called automatically by OCSF when a client disconnects
      */
@@ -95,77 +569,130 @@ public class SimpleServer extends AbstractServer {
     protected void clientDisconnected(ConnectionToClient client) {
         super.clientDisconnected(client);
 
-        // Remove from subscribers list if exists
-        SubscribersList.removeIf(sc -> client.equals(sc.getClient()));
+        // Closing: the rooms' workers are gone and the games stay as journaled
+        if (isClosed()) return;
 
-        boolean wasPlayer = false;
-
-        if (client.equals(player1)) {
-            player1 = null;
-            wasPlayer = true;
-        } else if (client.equals(player2)) {
-            player2 = null;
-            wasPlayer = true;
+        spectators.unwatch(client);
+        String name = ratings.nameOf(client);
+        ratings.logout(client);
+        String token = tokens.remove(client.getConnectionId());
+        if (!holdSeat(client, token, name)) {
+            releaseSeat(client);
         }
+    }
 
-        // If a player disconnected, notify the remaining player
-        if (wasPlayer) {
-            ConnectionToClient other = (player1 != null) ? player1 : player2;
-            if (other != null) {
-                try {
-                    other.sendToClient("Opponent disconnected. Waiting for a new player...");
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+    /**
+     * Keeps the seat of a dropped player in a game in progress for the
+     * grace period. A seat whose game turns out to be over is released.
+     *
+     * @return false if the client had no seat
+     */
+    private boolean holdSeat(ConnectionToClient client, String token, String name) {
+        long grace = resumeGraceMillis;
+        GameRoom room = roomOf.get(client.getConnectionId());
+        if (grace <= 0 || token == null || room == null) return false;
+
+        room.suspend(client, seat -> {
+            if (seat == '\0') {
+                releaseSeat(client);
+                return;
             }
+            roomOf.remove(client.getConnectionId(), room);
+            reserve(token, new Reservation(room, seat, name), grace);
+        });
+        return true;
+    }
 
-            // Reset game state
-            resetBoard();
-            currentTurn = 'X';
-            xPlayer = '1';
-        }
+    /**
+     * Holds a seat for the player with a session token until the
+     * grace period runs out
+     */
+    private void reserve(String token, Reservation reservation, long grace) {
+        reservation.expiry = new TimingWheel.Timer(() -> expire(token, reservation));
+        reserved.put(token, reservation);
+        wheel.schedule(reservation.expiry, grace);
     }
 
     /**
-     * Clears the game board
+     * Closes the room of a player who did not come back in time, which
+     * journals its closing; the opponent waits for a new game
      */
-    private void resetBoard() {
-        for (int r = 0; r < 3; r++) {
-            for (int c = 0; c < 3; c++) {
-                board[r][c] = '\0';
+    private void expire(String token, Reservation reservation) {
+        if (!reserved.remove(token, reservation)) return; // resumed
+
+        // Listed until closed, so that a room gone from the list is journaled closed
+        GameRoom room = reservation.room;
+        room.abandon(reservation.seat, other -> {
+            rooms.remove(room.getId(), room);
+            if (other != null && roomOf.remove(other.getConnectionId(), room)) {
+                findOpponent(other);
             }
-        }
+        });
     }
 
     /**
-     * Initializes a new game between two connected players
+     * Gives a dropped player its seat back on a new connection, which
+     * keeps the token of the dropped one. A connection already seated
+     * in a game keeps it; one waiting for a game stops waiting.
      */
-    private void startGame() {
-        resetBoard();
-        Random rnd = new Random();
+    private void resume(ConnectionToClient client, ResumeRequest request) {
+        if (roomOf.containsKey(client.getConnectionId())) {
+            send(client, "You are already in a game.");
+            return;
+        }
 
-        // Randomly decide who gets X
-        boolean player1IsX = rnd.nextBoolean();
-        xPlayer = player1IsX ? '1' : '2';
+        // A client without a token holds no seat
+        String token = request.getToken();
+        Reservation reservation = token == null || token.isEmpty() ? null : reserved.remove(token);
+        if (reservation == null) {
+            send(client, "Your game is over. Waiting for an opponent...");
+            if (!matchmaker.isWaiting(client)) findOpponent(client);
+            return;
+        }
+        wheel.cancel(reservation.expiry);
+
+        cancelBotDeadline(client);
+        matchmaker.cancel(client);
+        spectators.unwatch(client);
+        tokens.put(client.getConnectionId(), token);
+        GameRoom room = reservation.room;
+        roomOf.put(client.getConnectionId(), room);
+        room.resume(reservation.seat, client, request.getLastSeq(), seated -> {
+            if (!seated) {
+                roomOf.remove(client.getConnectionId(), room);
+                send(client, "Your game is over. Waiting for an opponent...");
+                findOpponent(client);
+                return;
+            }
 
-        // Randomly decide who starts
-        currentTurn = rnd.nextBoolean() ? 'X' : 'O';
+            if (reservation.name != null) ratings.login(client, reservation.name);
+            send(client, new SessionToken(token));
 
-        char p1Symbol = player1IsX ? 'X' : 'O';
-        char p2Symbol = player1IsX ? 'O' : 'X';
+            // A connection that ended while resuming missed its own release
+            if (getClientConnection(client.getConnectionId()) == null
+                    && !holdSeat(client, token, reservation.name)) {
+                releaseSeat(client);
+            }
+        });
+    }
 
-        boolean p1Turn = (p1Symbol == currentTurn);
-        boolean p2Turn = (p2Symbol == currentTurn);
+    /**
+     * Takes a disconnected client out of the queue, or closes its room;
+     * the remaining player then waits for a new opponent
+     */
+    private void releaseSeat(ConnectionToClient client) {
+        cancelBotDeadline(client);
+        if (matchmaker.cancel(client)) return;
 
-        try {
-            player1.sendToClient(new GameStart(p1Symbol, p1Turn));
-            player2.sendToClient(new GameStart(p2Symbol, p2Turn));
+        GameRoom room = roomOf.remove(client.getConnectionId());
+        if (room == null) return;
 
-            // Send initial empty board
-            broadcastBoardUpdate(currentTurn, false, '\0');
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        rooms.remove(room.getId());
+        room.leave(client, other -> {
+            if (other != null && roomOf.remove(other.getConnectionId(), room)) {
+                findOpponent(other);
+            }
+        });
     }
 
     /**
@@ -189,159 +716,157 @@ public class SimpleServer extends AbstractServer {
                 return;
             }
 
-            // Subscribe client (EventBus demo)
-            if (s.startsWith("add client")) {
-                SubscribersList.add(new SubscribedClient(client));
-                try {
-                    client.sendToClient("client added successfully");
-                } catch (IOException e) {
-                    e.printStackTrace();
+            // The client missed a move and wants the whole board again
+            if (s.startsWith("#resync")) {
+                GameRoom room = roomOf.get(client.getConnectionId());
+                if (room != null) {
+                    room.resync(client);
+                } else {
+                    // A spectator joins again, which starts with the board
+                    GameRoom watched = rooms.get(spectators.getWatchedRoom(client));
+                    if (watched != null) watched.watch(client, () -> { });
                 }
                 return;
             }
 
-            // Unsubscribe client
-            if (s.startsWith("remove client")) {
-                SubscribersList.removeIf(sc -> client.equals(sc.getClient()));
+            // A new player asks for a game; one coming back sends a
+            // ResumeRequest instead
+            if (s.startsWith("#play")) {
+                if (roomOf.containsKey(client.getConnectionId()) || matchmaker.isWaiting(client)) return;
+                spectators.unwatch(client);
+                send(client, "Waiting for an opponent...");
+                findOpponent(client);
                 return;
             }
 
-            return;
-        }
-
-        // Handle a move request
-        if (msg instanceof MoveRequest) {
-            handleMove((MoveRequest) msg, client);
-            return;
-        }
-
-        // Unknown message type
-        System.out.println("Unknown message type: " + msg);
-    }
+            // Rate the client's games under a name
+            if (s.startsWith("#login")) {
+                String name = s.substring("#login".length()).trim();
+                if (!name.matches("[\\w-]{1,20}")) {
+                    send(client, "Usage: #login <name>, up to 20 letters, digits, _ or -");
+                    return;
+                }
+                send(client, "Logged in as " + name + " (rating " + ratings.login(client, name) + ")");
+
+                // A player already waiting moves to the bucket of its rating;
+                // a seated one plays the current game under its name
+                if (matchmaker.cancel(client)) {
+                    matchmaker.enqueue(client, bucketOf(client));
+                } else {
+                    GameRoom room = roomOf.get(client.getConnectionId());
+                    if (room != null) room.updateNames();
+                }
+                return;
+            }
 
-    /**
-     * Processes a single move in the game
-     */
-    private void handleMove(MoveRequest move, ConnectionToClient client) {
+            // The rooms that can be watched
+            if (s.startsWith("#rooms")) {
+                String list = rooms.keySet().stream().limit(ROOM_LIST_LIMIT)
+                        .map(String::valueOf).collect(Collectors.joining(" "));
+                send(client, "Rooms: " + list);
+                return;
+            }
 
-        // Game requires exactly two players
-        if (player1 == null || player2 == null) return;
+            // How long the tasks of a room wait for their turn
+            if (s.startsWith("#latency")) {
+                latency(client, s.substring("#latency".length()).trim());
+                return;
+            }
 
-        int r = move.getRow();
-        int c = move.getCol();
+            // Watch a room instead of playing
+            if (s.startsWith("#watch")) {
+                watch(client, s.substring("#watch".length()).trim());
+                return;
+            }
 
-        // Bounds check
-        if (r < 0 || r > 2 || c < 0 || c > 2) return;
+            // Stop watching and wait for an opponent again
+            if (s.startsWith("#unwatch")) {
+                if (spectators.unwatch(client)) {
+                    send(client, "Waiting for an opponent...");
+                    findOpponent(client);
+                }
+                return;
+            }
 
-        // Determine client's symbol
-        char clientSymbol = symbolFor(client);
-        if (clientSymbol == '\0') return;
+            return;
+        }
 
-        // Check turn
-        if (clientSymbol != currentTurn) {
-            try {
-                client.sendToClient("Not your turn");
-            } catch (IOException e) {
-                e.printStackTrace();
+        // Handle a move request in the sender's room
+        if (msg instanceof MoveRequest) {
+            GameRoom room = roomOf.get(client.getConnectionId());
+            if (room != null) {
+                room.handleMove((MoveRequest) msg, client);
             }
             return;
         }
 
-        // Cell must be empty
-        if (board[r][c] != '\0') return;
-
-        // Apply move
-        board[r][c] = clientSymbol;
-
-        // Check for winner
-        char winner = checkWinner();
-        if (winner != '\0') {
-            broadcastBoardUpdate(currentTurn, true, winner);
+        // A new connection of a dropped player
+        if (msg instanceof ResumeRequest) {
+            resume(client, (ResumeRequest) msg);
             return;
         }
 
-        // Check for draw
-        if (isDraw()) {
-            broadcastBoardUpdate(currentTurn, true, 'T');
+        // A page of the leaderboard, with the sender's own rank
+        if (msg instanceof LeaderboardRequest) {
+            LeaderboardRequest request = (LeaderboardRequest) msg;
+            send(client, ratings.page(client, request.getOffset(), request.getCount()));
             return;
         }
 
-        // Continue game
-        currentTurn = (currentTurn == 'X') ? 'O' : 'X';
-        broadcastBoardUpdate(currentTurn, false, '\0');
-    }
-
-    /**
-     * Returns the symbol ('X' or 'O') of a given client
-     */
-    private char symbolFor(ConnectionToClient client) {
-        boolean isP1 = client.equals(player1);
-        boolean isP2 = client.equals(player2);
-        if (!isP1 && !isP2) return '\0';
-
-        char playerNum = isP1 ? '1' : '2';
-        return (playerNum == xPlayer) ? 'X' : 'O';
+        // Unknown message type
+        System.out.println("Unknown message type: " + msg);
     }
 
     /**
-     * Checks if there is a winner on the board
+     * Makes a client a spectator of a room. A client that asked to play
+     * gives up its place in the queue or its seat, and its opponent
+     * waits for a new one.
      */
-    private char checkWinner() {
-        for (int i = 0; i < 3; i++) {
-            if (board[i][0] != '\0' &&
-                    board[i][0] == board[i][1] &&
-                    board[i][1] == board[i][2]) {
-                return board[i][0];
-            }
-
-            if (board[0][i] != '\0' &&
-                    board[0][i] == board[1][i] &&
-                    board[1][i] == board[2][i]) {
-                return board[0][i];
-            }
-        }
-
-        if (board[0][0] != '\0' &&
-                board[0][0] == board[1][1] &&
-                board[1][1] == board[2][2]) {
-            return board[0][0];
+    private void watch(ConnectionToClient client, String roomId) {
+        GameRoom room;
+        try {
+            room = rooms.get(Long.parseLong(roomId));
+        } catch (NumberFormatException e) {
+            send(client, "Usage: #watch <room>");
+            return;
         }
-
-        if (board[0][2] != '\0' &&
-                board[0][2] == board[1][1] &&
-                board[1][1] == board[2][0]) {
-            return board[0][2];
+        if (room == null) {
+            send(client, "No game in room " + roomId);
+            return;
         }
 
-        return '\0';
+        releaseSeat(client);
+        room.watch(client, () -> {
+            send(client, "No game in room " + roomId);
+            findOpponent(client);
+        });
     }
 
     /**
-     * Checks if the game ended in a draw
+     * Reports the queue latency of a room: the sender's own room, or the
+     * room given
      */
-    private boolean isDraw() {
-        for (int r = 0; r < 3; r++) {
-            for (int c = 0; c < 3; c++) {
-                if (board[r][c] == '\0') return false;
-            }
+    private void latency(ConnectionToClient client, String roomId) {
+        GameRoom room;
+        try {
+            room = roomId.isEmpty() ? roomOf.get(client.getConnectionId()) : rooms.get(Long.parseLong(roomId));
+        } catch (NumberFormatException e) {
+            room = null;
         }
-        return checkWinner() == '\0';
-    }
-
-    /**
-     * Sends a BoardUpdate object to both players
-     */
-    private void broadcastBoardUpdate(char nextTurn, boolean gameOver, char winner) {
-        char[][] copy = new char[3][3];
-        for (int i = 0; i < 3; i++) {
-            System.arraycopy(board[i], 0, copy[i], 0, 3);
+        if (room == null) {
+            send(client, "Usage: #latency [room]");
+            return;
         }
 
-        BoardUpdate upd = new BoardUpdate(copy, nextTurn, gameOver, winner);
+        Mailbox mailbox = room.getMailbox();
+        send(client, "Room " + room.getId() + ": " + mailbox.getTasksRun() + " tasks, waited "
+                + TimeUnit.NANOSECONDS.toMicros(mailbox.getMeanWaitNanos()) + " us on average, "
+                + TimeUnit.NANOSECONDS.toMicros(mailbox.getMaxWaitNanos()) + " us at most");
+    }
 
+    private static void send(ConnectionToClient client, Object msg) {
         try {
-            if (player1 != null) player1.sendToClient(upd);
-            if (player2 != null) player2.sendToClient(upd);
+            client.sendToClient(msg);
         } catch (IOException e) {
             e.printStackTrace();
         }
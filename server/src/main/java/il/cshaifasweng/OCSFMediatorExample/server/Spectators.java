@@ -0,0 +1,229 @@
+package il.cshaifasweng.OCSFMediatorExample.server;
+
+import il.cshaifasweng.OCSFMediatorExample.server.ocsf.ConnectionToClient;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The spectators of every room, indexed by room and by spectator.
+ * <p>
+ * A room with spectators has a topic: a queue of the room's board
+ * messages, drained by one thread of the fan-out executor at a time,
+ * which sends each message to every spectator in order. Publishing a
+ * move thus costs the room a single enqueue however many watch, and
+ * the sends happen away from the room's turn. A topic hands the
+ * executor back after a batch, so a crowded room cannot hold it.
+ * <p>
+ * Joining and leaving go through the same queue as the moves: a new
+ * spectator gets the whole board and then exactly the moves after it,
+ * and the set of spectators is only ever touched by the draining thread.
+ */
+public class Spectators {
+
+    /**
+     * Commands a topic runs before giving the executor to other topics
+     */
+    private static final int DRAIN_BATCH = 64;
+
+    private final Executor fanOut;
+
+    /**
+     * The topics of the rooms being watched, by room id
+     */
+    private final Map<Long, Topic> topics = new ConcurrentHashMap<>();
+
+    /**
+     * The topic each spectator watches, by connection id
+     */
+    private final Map<Long, Topic> watching = new ConcurrentHashMap<>();
+
+    /**
+     * @param fanOut sends the rooms' messages to their spectators
+     */
+    public Spectators(Executor fanOut) {
+        this.fanOut = fanOut;
+    }
+
+    /**
+     * Makes a client watch a room, leaving the room it watched before.
+     * Call on the room's turn, so that no move is published
+     * between the board and the client's joining.
+     *
+     * @param board the whole board, sent to the client first
+     */
+    public void watch(long roomId, ConnectionToClient client, Object board) {
+        unwatch(client);
+        Topic topic = topics.computeIfAbsent(roomId, Topic::new);
+        watching.put(client.getConnectionId(), topic);
+        topic.offer(new Command(Command.JOIN, client, board));
+    }
+
+    /**
+     * @return false if the client watched no room
+     */
+    public boolean unwatch(ConnectionToClient client) {
+        Topic topic = watching.remove(client.getConnectionId());
+        if (topic == null) return false;
+        topic.offer(new Command(Command.LEAVE, client, null));
+        return true;
+    }
+
+    /**
+     * Sends a room's message to its spectators, if it has any
+     *
+     * @param msg the message, encoded once for all of them
+     */
+    public void publish(long roomId, Object msg) {
+        Topic topic = topics.get(roomId);
+        if (topic != null) topic.offer(new Command(Command.SEND, null, msg));
+    }
+
+    /**
+     * Sends a room's last message to its spectators, who then watch
+     * nothing. Call on the room's turn once the room is closed.
+     */
+    public void close(long roomId, Object notice) {
+        Topic topic = topics.remove(roomId);
+        if (topic != null) topic.offer(new Command(Command.CLOSE, null, notice));
+    }
+
+    /**
+     * @return the spectators of a room, as of the last message sent to
+     *         them
+     */
+    public int getSpectatorCount(long roomId) {
+        Topic topic = topics.get(roomId);
+        return topic == null ? 0 : topic.count;
+    }
+
+    /**
+     * @return the room a client watches, or -1
+     */
+    public long getWatchedRoom(ConnectionToClient client) {
+        Topic topic = watching.get(client.getConnectionId());
+        return topic == null ? -1 : topic.roomId;
+    }
+
+    /**
+     * @return the number of clients watching a room
+     */
+    public int getSpectatorCount() {
+        return watching.size();
+    }
+
+    private static final class Command {
+        static final int JOIN = 0;
+        static final int LEAVE = 1;
+        static final int SEND = 2;
+        static final int CLOSE = 3;
+
+        final int kind;
+        final ConnectionToClient client;
+        final Object msg;
+
+        Command(int kind, ConnectionToClient client, Object msg) {
+            this.kind = kind;
+            this.client = client;
+            this.msg = msg;
+        }
+    }
+
+    /**
+     * One room's spectators and the messages on their way to them
+     */
+    private final class Topic {
+        private final Queue<Command> pending = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Set while a drain is queued or running; its compare-and-set
+         * hands the topic from one draining thread to the next
+         */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        /**
+         * Only touched by the draining thread
+         */
+        private final Set<ConnectionToClient> members = new LinkedHashSet<>();
+
+        private final long roomId;
+
+        private volatile int count;
+
+        Topic(long roomId) {
+            this.roomId = roomId;
+        }
+
+        void offer(Command command) {
+            pending.add(command);
+            if (scheduled.compareAndSet(false, true)) fanOut.execute(this::drain);
+        }
+
+        private void drain() {
+            for (int i = 0; i < DRAIN_BATCH; i++) {
+                Command command = pending.poll();
+                if (command == null) break;
+                run(command);
+            }
+            count = members.size();
+
+            scheduled.set(false);
+            // A command offered while the flag was still set is drained here
+            if (!pending.isEmpty() && scheduled.compareAndSet(false, true)) {
+                fanOut.execute(this::drain);
+            }
+        }
+
+        private void run(Command command) {
+            switch (command.kind) {
+                case Command.JOIN:
+                    if (send(command.client, command.msg)) members.add(command.client);
+                    break;
+                case Command.LEAVE:
+                    members.remove(command.client);
+                    break;
+                case Command.SEND:
+                    sendToAll(command.msg);
+                    break;
+                case Command.CLOSE:
+                    sendToAll(command.msg);
+                    for (ConnectionToClient member : members) {
+                        watching.remove(member.getConnectionId(), this);
+                    }
+                    members.clear();
+                    break;
+            }
+        }
+
+        private void sendToAll(Object msg) {
+            Iterator<ConnectionToClient> it = members.iterator();
+            while (it.hasNext()) {
+                ConnectionToClient member = it.next();
+                if (!send(member, msg)) {
+                    it.remove();
+                    watching.remove(member.getConnectionId(), this);
+                }
+            }
+        }
+
+        /**
+         * @return false if the client is gone or cannot keep up
+         */
+        private boolean send(ConnectionToClient client, Object msg) {
+            try {
+                client.sendToClient(msg);
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package il.cshaifasweng.OCSFMediatorExample.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timing wheel: one thread keeping every timer of the server,
+ * however many rooms there are.
+ * <p>
+ * Time is cut in ticks, and a timer waits in the slot of the tick it is
+ * due, its deadline rounded up so that it never fires early. Each tick
+ * the thread visits one slot, hands the due timers' tasks to the
+ * executor, and leaves the timers due on a later turn of the wheel.
+ * Slots are doubly linked lists threaded through the timers themselves,
+ * so scheduling, rescheduling and cancelling are O(1) and allocate
+ * nothing: a room keeps one {@link Timer} and arms it again each turn.
+ * <p>
+ * A task may still run after its timer was rescheduled or cancelled,
+ * if it was already due; its owner checks its own deadline.
+ */
+public class TimingWheel implements AutoCloseable {
+
+    /**
+     * A reusable timer. Its task runs on the wheel's executor.
+     */
+    public static final class Timer {
+        private final Runnable task;
+
+        // Guarded by the wheel
+        private Timer prev;
+        private Timer next;
+        private long dueTick = -1; // -1 when not scheduled
+
+        public Timer(Runnable task) {
+            this.task = task;
+        }
+    }
+
+    private final long tickNanos;
+    private final Timer[] slots;
+    private final int mask;
+    private final Executor executor;
+    private final long start = System.nanoTime();
+    private final Thread ticker;
+
+    /**
+     * The last tick whose slot was visited. Guarded by this wheel.
+     */
+    private long tick = 0;
+
+    private int size = 0;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param tickMillis the precision of the timers
+     * @param slots      the number of slots, rounded up to a power of
+     *                   two; a turn of the wheel should cover the usual
+     *                   delays
+     * @param executor   runs the tasks of the timers
+     */
+    public TimingWheel(long tickMillis, int slots, Executor executor) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int length = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+        this.slots = new Timer[length];
+        this.mask = length - 1;
+        this.executor = executor;
+
+        ticker = new Thread(this::run, "timing-wheel");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    /**
+     * Arms a timer, or moves its deadline if it is armed
+     *
+     * @param delayMillis the time from now after which the task runs
+     */
+    public synchronized void schedule(Timer timer, long delayMillis) {
+        unlink(timer);
+
+        long deadline = System.nanoTime() - start + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        long due = Math.max(tick + 1, (deadline + tickNanos - 1) / tickNanos);
+        timer.dueTick = due;
+
+        int slot = (int) (due & mask);
+        timer.next = slots[slot];
+        if (timer.next != null) timer.next.prev = timer;
+        slots[slot] = timer;
+        size++;
+    }
+
+    /**
+     * @return false if the timer was not armed
+     */
+    public synchronized boolean cancel(Timer timer) {
+        return unlink(timer);
+    }
+
+    /**
+     * @return the number of armed timers
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private boolean unlink(Timer timer) {
+        if (timer.dueTick < 0) return false;
+
+        if (timer.prev != null) {
+            timer.prev.next = timer.next;
+        } else {
+            slots[(int) (timer.dueTick & mask)] = timer.next;
+        }
+        if (timer.next != null) timer.next.prev = timer.prev;
+        timer.prev = null;
+        timer.next = null;
+        timer.dueTick = -1;
+        size--;
+        return true;
+    }
+
+    private void run() {
+        List<Timer> due = new ArrayList<>();
+        long next = 1;
+        while (running) {
+            long wait = start + next * tickNanos - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+
+            synchronized (this) {
+                tick = next;
+                for (Timer timer = slots[(int) (next & mask)]; timer != null; ) {
+                    Timer following = timer.next;
+                    if (timer.dueTick <= next) {
+                        unlink(timer);
+                        due.add(timer);
+                    }
+                    timer = following;
+                }
+            }
+            next++;
+
+            for (Timer timer : due) {
+                try {
+                    executor.execute(timer.task);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+            due.clear();
+        }
+    }
+
+    /**
+     * Stops the wheel; armed timers never run
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(ticker);
+    }
+}
@@ -0,0 +1,106 @@
+package il.cshaifasweng.OCSFMediatorExample.server;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size cache of searched positions, keyed by board hash and
+ * shared by every search of the server. Each slot holds the position's
+ * hash and one packed entry: score, depth, bound and best move. A new
+ * entry always replaces the old one in its slot.
+ * <p>
+ * Searches on other threads read and write the table without locks.
+ * The hash is stored XORed with the entry, so a slot torn by two
+ * writers no longer matches either position and simply reads as a
+ * miss.
+ */
+public final class TranspositionTable {
+
+    /**
+     * {@link #probe} result when the position is not in the table
+     */
+    public static final long MISS = 0;
+
+    /** The score is exact */
+    public static final int EXACT = 0;
+
+    /** The score is a lower bound: the search failed high */
+    public static final int LOWER = 1;
+
+    /** The score is an upper bound: the search failed low */
+    public static final int UPPER = 2;
+
+    /**
+     * Set in every stored entry, so that no entry equals {@link #MISS}
+     */
+    private static final long VALID = 1L << 63;
+
+    private final long[] checks;
+    private final long[] entries;
+    private final int mask;
+
+    /**
+     * @param capacity the number of slots, rounded up to a power of two
+     */
+    public TranspositionTable(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity out of range: " + capacity);
+        }
+        int slots = Integer.highestOneBit(capacity);
+        if (slots < capacity) slots <<= 1;
+        this.checks = new long[slots];
+        this.entries = new long[slots];
+        this.mask = slots - 1;
+    }
+
+    public int getCapacity() {
+        return entries.length;
+    }
+
+    /**
+     * @return the entry of the position, or {@link #MISS}
+     */
+    public long probe(long hash) {
+        int slot = (int) hash & mask;
+        long entry = entries[slot];
+        return entry != MISS && (checks[slot] ^ entry) == hash ? entry : MISS;
+    }
+
+    /**
+     * @param depth the depth searched, kept up to 255
+     * @param move  the best move found as a cell index, or -1
+     */
+    public void store(long hash, int depth, int score, int bound, int move) {
+        long entry = VALID
+                | (long) (move + 1) << 42
+                | (long) bound << 40
+                | (long) Math.min(depth, 0xFF) << 32
+                | (score & 0xFFFFFFFFL);
+        int slot = (int) hash & mask;
+        entries[slot] = entry;
+        checks[slot] = hash ^ entry;
+    }
+
+    public static int score(long entry) {
+        return (int) entry;
+    }
+
+    public static int depth(long entry) {
+        return (int) (entry >>> 32) & 0xFF;
+    }
+
+    public static int bound(long entry) {
+        return (int) (entry >>> 40) & 0x3;
+    }
+
+    /**
+     * @return the best move as a cell index, or -1
+     */
+    public static int move(long entry) {
+        return (int) (entry >>> 42 & 0x1FFFF) - 1;
+    }
+
+    public void clear() {
+        Arrays.fill(entries, MISS);
+        Arrays.fill(checks, 0);
+    }
+}
@@ -0,0 +1,133 @@
+package il.cshaifasweng.OCSFMediatorExample.server;
+
+import java.util.Arrays;
+
+/**
+ * The classic 3x3 Tic-Tac-Toe board, stored as two 9-bit masks, one per symbol.
+ * Cell (row, col) is bit {@code row * 3 + col}. A move is checked
+ * against the precomputed winning lines through its cell only, so
+ * detecting a win or a draw after a move takes a handful of mask tests.
+ * <p>
+ * Not thread-safe; a board is only used on its room's turn.
+ */
+public final class XoBoard implements BoardEngine {
+
+    public static final int SIZE = 3;
+
+    private static final int FULL = (1 << SIZE * SIZE) - 1;
+
+    /**
+     * The eight winning lines: rows, columns, then diagonals
+     */
+    private static final int[] WIN_LINES = {
+            0b000_000_111, 0b000_111_000, 0b111_000_000,
+            0b001_001_001, 0b010_010_010, 0b100_100_100,
+            0b100_010_001, 0b001_010_100
+    };
+
+    /**
+     * For each cell, the winning lines going through it (2 to 4)
+     */
+    private static final int[][] LINES_THROUGH = new int[SIZE * SIZE][];
+
+    static {
+        for (int cell = 0; cell < SIZE * SIZE; cell++) {
+            int count = 0;
+            int[] lines = new int[4];
+            for (int line : WIN_LINES) {
+                if ((line & (1 << cell)) != 0) lines[count++] = line;
+            }
+            LINES_THROUGH[cell] = Arrays.copyOf(lines, count);
+        }
+    }
+
+    private int xMask;
+    private int oMask;
+
+    @Override
+    public int getSize() {
+        return SIZE;
+    }
+
+    @Override
+    public int getWinLength() {
+        return SIZE;
+    }
+
+    @Override
+    public boolean inBounds(int row, int col) {
+        return row >= 0 && row < SIZE && col >= 0 && col < SIZE;
+    }
+
+    @Override
+    public char get(int row, int col) {
+        int bit = 1 << (row * SIZE + col);
+        if ((xMask & bit) != 0) return 'X';
+        if ((oMask & bit) != 0) return 'O';
+        return '\0';
+    }
+
+    @Override
+    public boolean isEmpty(int row, int col) {
+        return ((xMask | oMask) & (1 << (row * SIZE + col))) == 0;
+    }
+
+    @Override
+    public char place(int row, int col, char symbol) {
+        if (!inBounds(row, col) || !isEmpty(row, col)) {
+            throw new IllegalArgumentException("cell not available: " + row + "," + col);
+        }
+
+        int cell = row * SIZE + col;
+        int mask;
+        if (symbol == 'X') {
+            mask = xMask |= 1 << cell;
+        } else {
+            mask = oMask |= 1 << cell;
+        }
+
+        for (int line : LINES_THROUGH[cell]) {
+            if ((mask & line) == line) return symbol;
+        }
+        return (xMask | oMask) == FULL ? DRAW : NONE;
+    }
+
+    @Override
+    public void remove(int row, int col) {
+        int bit = 1 << (row * SIZE + col);
+        xMask &= ~bit;
+        oMask &= ~bit;
+    }
+
+    @Override
+    public void clear() {
+        xMask = 0;
+        oMask = 0;
+    }
+
+    @Override
+    public XoBoard copy() {
+        XoBoard copy = new XoBoard();
+        copy.xMask = xMask;
+        copy.oMask = oMask;
+        return copy;
+    }
+
+    /**
+     * @return the bits of the cells holding a symbol
+     */
+    public int getMask(char symbol) {
+        return symbol == 'X' ? xMask : oMask;
+    }
+
+    @Override
+    public char[][] toArray() {
+        char[][] cells = new char[SIZE][SIZE];
+        for (int r = 0; r < SIZE; r++) {
+            for (int c = 0; c < SIZE; c++) {
+                cells[r][c] = get(r, c);
+            }
+        }
+        return cells;
+    }
+}
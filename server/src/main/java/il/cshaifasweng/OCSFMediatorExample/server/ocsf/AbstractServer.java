@@ -4,8 +4,16 @@
 
 package il.cshaifasweng.OCSFMediatorExample.server.ocsf;
 
+import il.cshaifasweng.OCSFMediatorExample.entities.wire.MessageCodec;
+import il.cshaifasweng.OCSFMediatorExample.entities.wire.ResetPolicy;
+import il.cshaifasweng.OCSFMediatorExample.entities.wire.WireFormat;
+
 import java.net.*;
+import java.nio.channels.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.io.*;
 
 /**
@@ -96,6 +104,20 @@ public abstract class AbstractServer implements Runnable
    */
   private int timeout = 500;
 
+  /**
+   * How long, in ms, a new client has to send its stream header
+   * before its connection is dropped. Set to 10 seconds by default.
+   */
+  private int handshakeTimeout = 10000;
+
+  /**
+   * Serializes the creation of connections with the closing of the
+   * server, so that no connection is created once the server has
+   * closed its clients. Kept apart from the server's monitor, which
+   * guards the hooks.
+   */
+  private final Object connectionLock = new Object();
+
   /**
    * The maximum queue length; i.e. the maximum number of clients that
    * can be waiting to connect.
@@ -121,6 +143,98 @@ public abstract class AbstractServer implements Runnable
    * instances will be created. Added in version 2.3
    */
   private AbstractConnectionFactory connectionFactory = null;
+
+  /**
+   * The way accepted connections are run. Threads per connection
+   * by default.
+   */
+  private ConnectionMode connectionMode = ConnectionMode.THREAD_PER_CONNECTION;
+
+  /**
+   * The engine performing the socket I/O in NIO mode, null otherwise.
+   */
+  private volatile NioServerEngine nioEngine = null;
+
+  /**
+   * The executor running the connection read loops in
+   * <code>ConnectionMode.VIRTUAL_THREAD</code>, null otherwise.
+   */
+  private volatile ExecutorService connectionExecutor = null;
+
+  /**
+   * The open connections, by connection id, whatever the connection
+   * mode. Counting, looking up and iterating never lock nor copy.
+   */
+  private final ConcurrentHashMap<Long, ConnectionToClient> connections =
+    new ConcurrentHashMap<Long, ConnectionToClient>();
+
+  /**
+   * The id of the last connection created. Ids are never reused.
+   */
+  private final AtomicLong lastConnectionId = new AtomicLong();
+
+  /**
+   * The capacity of the outbound queue of each new connection.
+   * Set to 0 by default, meaning that <code>sendToClient</code>
+   * writes synchronously.
+   */
+  private int outboundQueueCapacity = 0;
+
+  /**
+   * What a connection does when its outbound queue is full.
+   */
+  private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+  /**
+   * The codec used to exchange messages, or null to use the object
+   * streams of Java serialization (the default).
+   */
+  private MessageCodec codec = null;
+
+  /**
+   * When the object streams of the connections are reset. Before
+   * every message by default.
+   */
+  private ResetPolicy resetPolicy = ResetPolicy.ALWAYS;
+
+  /**
+   * Whether Nagle's algorithm is disabled on client sockets. True by
+   * default: connections buffer their output and flush it once per
+   * batch of messages, so delaying the flushed segment would only add
+   * latency.
+   */
+  private boolean tcpNoDelay = true;
+
+  /**
+   * Whether keep-alive probes are sent on idle client sockets.
+   * False by default.
+   */
+  private boolean keepAlive = false;
+
+  /**
+   * The send buffer size of client sockets in bytes. Set to 0 by
+   * default, meaning the operating system's size.
+   */
+  private int sendBufferSize = 0;
+
+  /**
+   * The receive buffer size of client sockets in bytes. Set to 0 by
+   * default, meaning the operating system's size.
+   */
+  private int receiveBufferSize = 0;
+
+  /**
+   * The lanes handling received messages, or null when messages are
+   * handled one at a time under the server's monitor (the default).
+   */
+  private volatile StripedDispatcher dispatcher = null;
+
+  /**
+   * The pool running the writers of the outbound queues. Threads are
+   * only created while some connection has messages to write.
+   */
+  private final ExecutorService writerPool =
+    Executors.newCachedThreadPool(daemonThreads("ConnectionToClient writer"));
   
 // CONSTRUCTOR ******************************************************
 
@@ -156,6 +270,8 @@ public abstract class AbstractServer implements Runnable
    *
    * @exception IOException if an I/O error occurs
    * when creating the server socket.
+   * @exception IllegalStateException in <code>ConnectionMode.NIO</code>
+   * without a codec or without an outbound queue.
    */
   final public void listen() throws IOException
   {
@@ -163,7 +279,34 @@ public abstract class AbstractServer implements Runnable
     {
       if (serverSocket == null)
       {
-        serverSocket = new ServerSocket(getPort(), backlog);
+        if (connectionMode == ConnectionMode.NIO)
+        {
+          if (codec == null)
+            throw new IllegalStateException(
+              "ConnectionMode.NIO needs a codec, see setCodec()");
+          if (outboundQueueCapacity <= 0)
+            throw new IllegalStateException(
+              "ConnectionMode.NIO needs an outbound queue, see setOutboundQueue()");
+
+          // Accepting stays blocking; accepted channels are handed
+          // to the engine which serves them without blocking.
+          ServerSocketChannel channel = ServerSocketChannel.open();
+          serverSocket = channel.socket();
+          nioEngine = new NioServerEngine(
+            this, Runtime.getRuntime().availableProcessors());
+        }
+        else
+        {
+          serverSocket = new ServerSocket();
+        }
+
+        // Must be set before binding for windows above 64 KB
+        if (receiveBufferSize > 0)
+          serverSocket.setReceiveBufferSize(receiveBufferSize);
+        serverSocket.bind(new InetSocketAddress(getPort()), backlog);
+
+        if (connectionMode == ConnectionMode.VIRTUAL_THREAD)
+          connectionExecutor = newVirtualThreadExecutor();
       }
 
       serverSocket.setSoTimeout(timeout);
@@ -205,20 +348,30 @@ public abstract class AbstractServer implements Runnable
     }
     finally
     {
-      synchronized (this)
+      synchronized (connectionLock)
       {
         // Close the client sockets of the already connected clients
-        Thread[] clientThreadList = getClientConnections();
-        for (int i=0; i<clientThreadList.length; i++)
+        for (ConnectionToClient client : connections.values())
         {
           try
           {
-            ((ConnectionToClient)clientThreadList[i]).close();
+            client.close();
           }
           // Ignore all exceptions when closing clients.
           catch(Exception ex) {}
         }
         serverSocket = null;
+
+        if (nioEngine != null)
+        {
+          nioEngine.shutdown();
+          nioEngine = null;
+        }
+        if (connectionExecutor != null)
+        {
+          connectionExecutor.shutdown();
+          connectionExecutor = null;
+        }
       }
 
       try
@@ -245,18 +398,49 @@ public abstract class AbstractServer implements Runnable
    */
   public void sendToAllClients(Object msg)
   {
-    Thread[] clientThreadList = getClientConnections();
+    if (connections.isEmpty())
+      return;
 
-    for (int i=0; i<clientThreadList.length; i++)
+    // Serialize once, then write the same bytes to every client
+    Object encoded;
+    try
+    {
+      encoded = encode(msg);
+    }
+    catch (IOException ex)
+    {
+      return; // could not be sent to any client anyway
+    }
+
+    for (ConnectionToClient client : connections.values())
     {
       try
       {
-        ((ConnectionToClient)clientThreadList[i]).sendToClient(msg);
+        client.sendToClient(encoded);
       }
       catch (Exception ex) {}
     }
   }
 
+  /**
+   * Encodes a message once so that it can be sent to several clients
+   * without being serialized for each of them. The result is passed
+   * to <code>ConnectionToClient.sendToClient()</code> in place of the
+   * message.
+   *
+   * @param msg the message to encode.
+   * @return the encoded message.
+   * @exception IOException if the message cannot be encoded.
+   */
+  public EncodedMessage encode(Object msg) throws IOException
+  {
+    if (msg instanceof EncodedMessage)
+      return (EncodedMessage)msg;
+    if (codec != null)
+      return new EncodedMessage(msg, WireFormat.frame(codec, msg));
+    return EncodedMessage.serialize(msg);
+  }
+
 
 // ACCESSING METHODS ------------------------------------------------
 
@@ -289,18 +473,39 @@ public abstract class AbstractServer implements Runnable
    * Remember that after this array is obtained, some clients
    * in this migth disconnect. New clients can also connect,
    * these later will not appear in the array.
+   * The array is a copy; <code>forEachClient()</code> visits the
+   * connections without allocating one.
    *
    * @return an array of <code>Thread</code> containing
    * <code>ConnectionToClient</code> instances.
    */
-  synchronized final public Thread[] getClientConnections()
+  final public Thread[] getClientConnections()
   {
-    Thread[] clientThreadList = new
-      Thread[clientThreadGroup.activeCount()];
+    return connections.values().toArray(new Thread[0]);
+  }
 
-    clientThreadGroup.enumerate(clientThreadList);
+  /**
+   * Performs an action on every existing client connection, without
+   * copying them first. Clients connecting or disconnecting meanwhile
+   * may or may not be visited; each connection is visited at most once.
+   *
+   * @param action the action to perform.
+   */
+  final public void forEachClient(Consumer<? super ConnectionToClient> action)
+  {
+    connections.values().forEach(action);
+  }
 
-    return clientThreadList;
+  /**
+   * Returns the connection with the given id.
+   *
+   * @param connectionId the id returned by
+   *   <code>ConnectionToClient.getConnectionId()</code>.
+   * @return the connection, or null if it has ended.
+   */
+  final public ConnectionToClient getClientConnection(long connectionId)
+  {
+    return connections.get(connectionId);
   }
 
   /**
@@ -310,7 +515,7 @@ public abstract class AbstractServer implements Runnable
    */
   final public int getNumberOfClients()
   {
-    return clientThreadGroup.activeCount();
+    return connections.size();
   }
 
   /**
@@ -349,6 +554,27 @@ public abstract class AbstractServer implements Runnable
     this.timeout = timeout;
   }
 
+  /**
+   * Sets how long a new client has to send its stream header. A
+   * client that does not is dropped without
+   * <code>clientConnected</code> being called. A timeout of 0 waits
+   * forever. Takes effect for the clients connecting from now on.
+   *
+   * @param timeout the handshake timeout in ms.
+   */
+  final public void setHandshakeTimeout(int timeout)
+  {
+    this.handshakeTimeout = timeout;
+  }
+
+  /**
+   * @return the handshake timeout in ms.
+   */
+  final public int getHandshakeTimeout()
+  {
+    return handshakeTimeout;
+  }
+
   /**
    * Sets the maximum number of waiting connections accepted by the
    * operating system. The default is 20.
@@ -377,6 +603,190 @@ public abstract class AbstractServer implements Runnable
     this.connectionFactory = factory;
   }
 
+  /**
+   * Sets the way accepted connections are run.
+   * The server must be closed and restarted for the mode
+   * change to be in effect. The connection factory is not used
+   * in <code>ConnectionMode.NIO</code> since connections are not
+   * threads in that mode. That mode also needs a codec and an
+   * outbound queue, see <code>setCodec()</code> and
+   * <code>setOutboundQueue()</code>.
+   *
+   * @param mode the connection mode.
+   */
+  final public void setConnectionMode(ConnectionMode mode)
+  {
+    this.connectionMode = mode;
+  }
+
+  /**
+   * Returns the way accepted connections are run.
+   *
+   * @return the connection mode.
+   */
+  final public ConnectionMode getConnectionMode()
+  {
+    return connectionMode;
+  }
+
+  /**
+   * Gives every connection accepted from now on a bounded outbound
+   * queue. <code>sendToClient</code> then only queues the message and
+   * a writer owned by the connection writes it, so a slow client
+   * delays nobody but itself. A capacity of 0 restores synchronous
+   * writes.
+   *
+   * @param capacity the maximum number of queued messages per client.
+   * @param policy what to do when a queue is full.
+   */
+  final public void setOutboundQueue(int capacity, OverflowPolicy policy)
+  {
+    this.outboundQueueCapacity = capacity;
+    this.overflowPolicy = policy;
+  }
+
+  /**
+   * Sets the codec used to exchange messages with the clients
+   * connecting from now on. Each message is then sent as a
+   * length-prefixed frame encoded by the codec, instead of through
+   * object streams. The clients must use the same codec. A null codec
+   * restores the object streams, which <code>ConnectionMode.NIO</code>
+   * does not support: use <code>SerializationCodec</code> there to
+   * send serialized objects in frames.
+   *
+   * @param codec the codec, or null.
+   */
+  final public void setCodec(MessageCodec codec)
+  {
+    this.codec = codec;
+  }
+
+  /**
+   * @return the codec used with new clients, or null for the
+   *   object streams.
+   */
+  final public MessageCodec getCodec()
+  {
+    return codec;
+  }
+
+  /**
+   * Sets when the object streams of the clients connecting from now
+   * on are reset. Only meaningful without a codec. Resetting less
+   * often saves the class descriptors of every message but is only
+   * correct for messages that are not modified once sent.
+   *
+   * @param policy the reset policy.
+   * @see ConnectionToClient#getResetTracker()
+   */
+  final public void setResetPolicy(ResetPolicy policy)
+  {
+    this.resetPolicy = policy;
+  }
+
+  /**
+   * @return the reset policy of new connections.
+   */
+  final public ResetPolicy getResetPolicy()
+  {
+    return resetPolicy;
+  }
+
+  /**
+   * Handles received messages on the given number of lanes instead of
+   * one at a time under the server's monitor. Messages with the same
+   * dispatch key, as returned by <code>getDispatchKey()</code>, are
+   * handled one at a time and in order; messages with different keys
+   * may be handled in parallel. A count of 0 restores the synchronized
+   * handling. Messages already queued on previous lanes are still
+   * handled. Handlers on different lanes may send to the same client
+   * at once; without an outbound queue, each connection serializes
+   * its writes itself.
+   *
+   * @param laneCount the number of lanes, typically the number of cores.
+   */
+  final public void setDispatchLanes(int laneCount)
+  {
+    StripedDispatcher previous = dispatcher;
+    dispatcher = laneCount > 0 ? new StripedDispatcher(laneCount) : null;
+    if (previous != null)
+      previous.shutdown();
+  }
+
+  /**
+   * @return the number of dispatch lanes, 0 when messages are handled
+   *   under the server's monitor.
+   */
+  final public int getDispatchLanes()
+  {
+    StripedDispatcher current = dispatcher;
+    return current == null ? 0 : current.getLaneCount();
+  }
+
+  /**
+   * Sets whether Nagle's algorithm is disabled on the sockets of the
+   * clients connecting from now on. The default is true.
+   *
+   * @param on true to send flushed bytes without delay.
+   */
+  final public void setTcpNoDelay(boolean on)
+  {
+    this.tcpNoDelay = on;
+  }
+
+  /**
+   * Sets whether keep-alive probes are sent on the sockets of the
+   * clients connecting from now on. The default is false.
+   *
+   * @param on true to enable keep-alive.
+   */
+  final public void setKeepAlive(boolean on)
+  {
+    this.keepAlive = on;
+  }
+
+  /**
+   * Sets the send buffer size of the sockets of the clients
+   * connecting from now on. A size of 0, the default, leaves the
+   * size chosen by the operating system.
+   *
+   * @param size the buffer size in bytes.
+   */
+  final public void setSendBufferSize(int size)
+  {
+    this.sendBufferSize = size;
+  }
+
+  /**
+   * Sets the receive buffer size of the sockets of the clients
+   * connecting from now on. A size of 0, the default, leaves the
+   * size chosen by the operating system. The server must be closed
+   * and restarted for sizes above 64 KB to be fully effective,
+   * since they are negotiated when the connection is accepted.
+   *
+   * @param size the buffer size in bytes.
+   */
+  final public void setReceiveBufferSize(int size)
+  {
+    this.receiveBufferSize = size;
+  }
+
+  /**
+   * @return the capacity of the outbound queue of new connections.
+   */
+  final public int getOutboundQueueCapacity()
+  {
+    return outboundQueueCapacity;
+  }
+
+  /**
+   * @return the policy applied when an outbound queue is full.
+   */
+  final public OverflowPolicy getOverflowPolicy()
+  {
+    return overflowPolicy;
+  }
+
 // RUN METHOD -------------------------------------------------------
 
   /**
@@ -401,21 +811,38 @@ public abstract class AbstractServer implements Runnable
           Socket clientSocket = serverSocket.accept();
 
           // When a client is accepted, create a thread to handle
-          // the data exchange, then add it to thread group
+          // the data exchange, then add it to thread group. The stream
+          // headers are exchanged by that thread, never here.
 
-          synchronized(this)
+          synchronized(connectionLock)
           {
             if (!readyToStop)  // added in version 2.2
             {
-              if (connectionFactory == null) {
+              try
+              {
+                if (nioEngine != null) {
+
+                  nioEngine.register(clientSocket.getChannel());
 
-                new ConnectionToClient(
-                  this.clientThreadGroup, clientSocket, this);
-                  
-              } else {        // added in version 2.3
+                } else if (connectionFactory == null) {
 
-                connectionFactory.createConnection(
-                  this.clientThreadGroup, clientSocket, this);
+                  new ConnectionToClient(
+                    this.clientThreadGroup, clientSocket, this);
+
+                } else {        // added in version 2.3
+
+                  connectionFactory.createConnection(
+                    this.clientThreadGroup, clientSocket, this);
+                }
+              }
+              catch (IOException exception)
+              {
+                // Only this client is lost; keep accepting the others
+                try
+                {
+                  clientSocket.close();
+                }
+                catch (IOException ex) {}
               }
             }
           }
@@ -450,9 +877,9 @@ public abstract class AbstractServer implements Runnable
 
   /**
    * Hook method called each time a new client connection is
-   * accepted. The default implementation does nothing.
-   * This method does not have to be synchronized since only
-   * one client can be accepted at a time.
+   * accepted, once its stream header has been received. The default
+   * implementation does nothing. This method is called by the thread
+   * of the connection, so several clients may be announced at once.
    *
    * @param client the connection connected to the client.
    */
@@ -461,7 +888,8 @@ public abstract class AbstractServer implements Runnable
   /**
    * Hook method called each time a client disconnects.
    * The client is garantee to be disconnected but the thread
-   * is still active until it is asynchronously removed from the thread group. 
+   * is still active until it is asynchronously removed from the thread group.
+   * The connection is no longer counted by <code>getNumberOfClients()</code>.
    * The default implementation does nothing. The method
    * may be overridden by subclasses but should remains synchronized.
    *
@@ -518,12 +946,32 @@ public abstract class AbstractServer implements Runnable
    */
   protected void serverClosed() {}
 
+  /**
+   * Hook method returning the key under which a message is handled
+   * when dispatch lanes are used. Messages with equal keys are
+   * handled one at a time and in order. The default implementation
+   * returns the client, so that each client's messages are handled in
+   * order while different clients are handled in parallel. Subclasses
+   * typically return the game or room the message is about.
+   *
+   * @param msg   the message sent.
+   * @param client the connection connected to the client that
+   *  sent the message.
+   * @return the dispatch key, never null.
+   */
+  protected Object getDispatchKey(Object msg, ConnectionToClient client)
+  {
+    return client;
+  }
+
   /**
    * Handles a command sent from one client to the server.
    * This MUST be implemented by subclasses, who should respond to
    * messages.
-   * This method is called by a synchronized method so it is also
-   * implcitly synchronized.
+   * Unless dispatch lanes are used, this method is called by a
+   * synchronized method so it is also implcitly synchronized. With
+   * dispatch lanes it is only serialized with the messages having
+   * the same dispatch key.
    *
    * @param msg   the message sent.
    * @param client the connection connected to the client that
@@ -535,22 +983,214 @@ public abstract class AbstractServer implements Runnable
 
 // METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------
 
+  /**
+   * Starts the read loop of a newly created connection, either as
+   * its own thread or on the connection executor.
+   *
+   * @param client the connection to start.
+   */
+  final void startConnection(ConnectionToClient client)
+  {
+    addConnection(client); // removed by the run method when it ends
+
+    ExecutorService executor = connectionExecutor;
+    if (executor == null)
+    {
+      client.start();
+      return;
+    }
+
+    executor.execute(() ->
+      {
+        try
+        {
+          client.run();
+        }
+        catch (Throwable exception)
+        {
+          // Replaces the uncaught exception handler of the thread group
+          clientException(client, exception);
+        }
+      });
+  }
+
+  /**
+   * Applies the socket options of the server to a client socket.
+   *
+   * @param socket the socket of a newly accepted client.
+   * @exception SocketException if an option cannot be set.
+   */
+  final void configureSocket(Socket socket) throws SocketException
+  {
+    socket.setTcpNoDelay(tcpNoDelay);
+    socket.setKeepAlive(keepAlive);
+    if (sendBufferSize > 0)
+      socket.setSendBufferSize(sendBufferSize);
+    if (receiveBufferSize > 0)
+      socket.setReceiveBufferSize(receiveBufferSize);
+  }
+
+  /**
+   * Returns the executor running the writers of the outbound queues.
+   * Virtual threads are used when the server runs in that mode.
+   *
+   * @return the writer executor.
+   */
+  final Executor getWriterExecutor()
+  {
+    ExecutorService executor = connectionExecutor;
+    return executor != null ? executor : writerPool;
+  }
+
+  /**
+   * @return a new connection id, never returned before by this server.
+   */
+  final long nextConnectionId()
+  {
+    return lastConnectionId.incrementAndGet();
+  }
+
+  /**
+   * Records an open connection.
+   *
+   * @param client the connection.
+   */
+  final void addConnection(ConnectionToClient client)
+  {
+    connections.put(client.getConnectionId(), client);
+  }
+
+  /**
+   * Forgets a connection recorded by <code>addConnection</code>.
+   *
+   * @param client the connection.
+   */
+  final void removeConnection(ConnectionToClient client)
+  {
+    connections.remove(client.getConnectionId(), client);
+  }
+
+  /**
+   * Creates the executor running one virtual thread per connection.
+   * Virtual threads are looked up reflectively so that the framework
+   * still builds and runs on older Java versions, in which case
+   * pooled platform threads are used.
+   *
+   * @return the connection executor.
+   */
+  private static ExecutorService newVirtualThreadExecutor()
+  {
+    try
+    {
+      return (ExecutorService)Executors.class
+        .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    }
+    catch (ReflectiveOperationException ex)
+    {
+      return Executors.newCachedThreadPool(daemonThreads("ConnectionToClient"));
+    }
+  }
+
+  /**
+   * Creates a factory of daemon threads for the pools of the server.
+   * The threads belong to the group of the thread creating the
+   * factory, never to the client thread group, whatever thread
+   * happens to make the pool grow.
+   *
+   * @param name the name of the threads.
+   * @return the thread factory.
+   */
+  static ThreadFactory daemonThreads(String name)
+  {
+    ThreadGroup group = Thread.currentThread().getThreadGroup();
+    return runnable ->
+      {
+        Thread thread = new Thread(group, runnable, name);
+        thread.setDaemon(true);
+        return thread;
+      };
+  }
+
   /**
    * Receives a command sent from the client to the server.
    * Called by the run method of <code>ConnectionToClient</code>
    * instances that are watching for messages coming from the server
-   * This method is synchronized to ensure that whatever effects it has
-   * do not conflict with work being done by other threads. The method
+   * Without dispatch lanes, the call is synchronized to ensure that
+   * whatever effects it has do not conflict with work being done by
+   * other threads. With dispatch lanes, the message is queued on the
+   * lane of its key and exceptions thrown while handling it are
+   * reported to <code>clientException</code>; a message received
+   * while the lanes are being replaced may be dropped. The method
    * simply calls the <code>handleMessageFromClient</code> slot method.
    *
    * @param msg   the message sent.
    * @param client the connection connected to the client that
    *  sent the message.
    */
-  final synchronized void receiveMessageFromClient(
+  final void receiveMessageFromClient(
     Object msg, ConnectionToClient client)
   {
-    this.handleMessageFromClient(msg, client);
+    StripedDispatcher lanes = dispatcher;
+    if (lanes == null)
+    {
+      synchronized (this)
+      {
+        this.handleMessageFromClient(msg, client);
+      }
+      return;
+    }
+
+    Object key = getDispatchKey(msg, client);
+    client.setLastDispatchKey(key);
+    try
+    {
+      lanes.dispatch(key, () ->
+        {
+          if (client.isClosing())
+            return; // closed meanwhile, see ConnectionToClient.close()
+          try
+          {
+            this.handleMessageFromClient(msg, client);
+          }
+          catch (RuntimeException ex)
+          {
+            clientException(client, ex);
+          }
+        });
+    }
+    catch (RejectedExecutionException ex)
+    {
+      // Lanes replaced meanwhile: the message is dropped rather than
+      // ending the connection that received it
+    }
+  }
+
+  /**
+   * Reports that a connection has ended. With dispatch lanes, the
+   * <code>clientDisconnected</code> hook is queued behind the last
+   * message received from the client so that it is still called after
+   * that message has been handled.
+   *
+   * @param client the connection that ended.
+   */
+  final void reportDisconnection(ConnectionToClient client)
+  {
+    StripedDispatcher lanes = dispatcher;
+    Object key = client.getLastDispatchKey();
+    if (lanes == null || key == null)
+    {
+      clientDisconnected(client);
+      return;
+    }
+
+    try
+    {
+      lanes.dispatch(key, () -> clientDisconnected(client));
+    }
+    catch (RejectedExecutionException ex)
+    {
+      clientDisconnected(client); // lanes replaced meanwhile
+    }
   }
 }
 // End of AbstractServer Class
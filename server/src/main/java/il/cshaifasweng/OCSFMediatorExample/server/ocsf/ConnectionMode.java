@@ -0,0 +1,39 @@
+package il.cshaifasweng.OCSFMediatorExample.server.ocsf;
+
+/**
+ * The ways an <code>AbstractServer</code> can run the connections
+ * it accepts. The mode is chosen with
+ * <code>AbstractServer.setConnectionMode()</code> before the
+ * server starts listening.
+ *
+ * @see AbstractServer#setConnectionMode(ConnectionMode)
+ */
+public enum ConnectionMode
+{
+  /**
+   * The classic OCSF behaviour: every <code>ConnectionToClient</code>
+   * is a platform thread blocked on its input stream.
+   */
+  THREAD_PER_CONNECTION,
+
+  /**
+   * Every <code>ConnectionToClient</code> runs its blocking read loop
+   * on a virtual thread, so tens of thousands of connections share a
+   * handful of carrier threads. On a Java runtime without virtual
+   * threads the loops run on a pool of platform threads instead.
+   */
+  VIRTUAL_THREAD,
+
+  /**
+   * All connections share a single selector thread for socket I/O.
+   * Received bytes are decoded and handled on a small worker pool,
+   * so an idle client costs no thread at all. This mode needs a
+   * codec, see <code>AbstractServer.setCodec()</code>: the workers
+   * only decode complete frames, so they never wait for a client.
+   * It also needs an outbound queue, see
+   * <code>AbstractServer.setOutboundQueue()</code>: messages are
+   * written by the writer of each connection, so a worker never
+   * waits for a client that does not read either.
+   */
+  NIO
+}
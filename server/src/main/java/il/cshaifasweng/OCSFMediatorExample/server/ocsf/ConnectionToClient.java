@@ -4,9 +4,15 @@
 
 package il.cshaifasweng.OCSFMediatorExample.server.ocsf;
 
+import il.cshaifasweng.OCSFMediatorExample.entities.wire.MessageCodec;
+import il.cshaifasweng.OCSFMediatorExample.entities.wire.ResetTracker;
+import il.cshaifasweng.OCSFMediatorExample.entities.wire.WireFormat;
+
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 /**
 * An instance of this class is created by the server when a client
@@ -65,6 +71,11 @@ public class ConnectionToClient extends Thread
   */
   private AbstractServer server;
 
+  /**
+  * The id of this connection, unique for the server.
+  */
+  private final long connectionId;
+
   /**
   * Sockets are used in the operating system as channels
   * of communication between two processes.
@@ -82,11 +93,116 @@ public class ConnectionToClient extends Thread
   */
   private ObjectOutputStream output;
 
+  /**
+  * The buffered stream under <code>output</code>, used to write
+  * messages encoded beforehand and frames of the codec. Bytes only
+  * reach the socket when it is flushed or full.
+  */
+  private volatile OutputStream rawOutput;
+
+  /**
+  * The codec of the server, or null when messages are exchanged
+  * with the object streams.
+  */
+  private MessageCodec codec;
+
+  /**
+  * Stream used to read frames from the client when a codec is used,
+  * in place of <code>input</code>.
+  */
+  private DataInputStream framedInput;
+
+  /**
+  * Decides when <code>output</code> is reset and counts the bytes
+  * this saves. Null when a codec is used.
+  */
+  private ResetTracker resetTracker;
+
   /**
   * Indicates if the thread is ready to stop. Set to true when closing
   * of the connection is initiated.
   */
-  private boolean readyToStop;
+  private volatile boolean readyToStop;
+
+  /**
+  * The engine serving this connection when the server runs in
+  * <code>ConnectionMode.NIO</code>, null otherwise.
+  */
+  private NioServerEngine engine;
+
+  /**
+  * The engine side state of this connection in NIO mode.
+  */
+  private NioServerEngine.Session session;
+
+  /**
+  * Indicates that the stream headers have been exchanged and
+  * <code>clientConnected</code> has been called for this connection.
+  */
+  private volatile boolean announced = false;
+
+  /**
+  * The dispatch key of the last message received from the client.
+  */
+  private volatile Object lastDispatchKey;
+
+  /**
+  * The messages waiting to be written to the client, or null when
+  * messages are written synchronously by <code>sendToClient</code>.
+  */
+  private BlockingQueue<Object> outbound;
+
+  /**
+  * Serializes the messages written directly by <code>sendToClient</code>
+  * when there is no outbound queue, since handlers on different
+  * dispatch lanes may send to the same client at once.
+  */
+  private final Object writeLock = new Object();
+
+  /**
+  * What to do when the outbound queue is full.
+  */
+  private OverflowPolicy overflowPolicy;
+
+  /**
+  * Set while a writer task is draining the outbound queue.
+  */
+  private final AtomicBoolean writing = new AtomicBoolean();
+
+  /**
+  * Set when the writer must flush once it has written the queued
+  * messages.
+  */
+  private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+  /**
+  * The largest number of messages ever waiting in the outbound queue.
+  */
+  private final AtomicInteger outboundPeak = new AtomicInteger();
+
+  /**
+  * The number of messages discarded because of a full queue.
+  */
+  private final AtomicLong droppedMessages = new AtomicLong();
+
+  /**
+  * Queued in place of a message to close the connection once
+  * every message sent before has been written.
+  */
+  private static final Object CLOSE_REQUEST = new Object();
+
+  /**
+  * How long, in ms, a connection closed by
+  * <code>closeAfterSending</code> waits for its last bytes to
+  * leave in NIO mode.
+  */
+  private static final long CLOSE_LINGER = 2000;
+
+  /**
+  * The size of the buffer in front of the socket. Messages written
+  * without a flush in between leave together as long as they fit.
+  */
+  private static final int OUTPUT_BUFFER_SIZE = 8192;
 
   /**
    * Map to save information about the client such as its login ID.
@@ -101,7 +217,9 @@ public class ConnectionToClient extends Thread
 // CONSTRUCTORS *****************************************************
 
   /**
-   * Constructs a new connection to a client.
+   * Constructs a new connection to a client. The streams are set up
+   * by the started thread, so that a client slow to send its stream
+   * header never delays the thread accepting connections.
    *
    * @param group the thread group that contains the connections.
    * @param clientSocket contains the client's socket.
@@ -117,28 +235,56 @@ public class ConnectionToClient extends Thread
     // Initialize variables
     this.clientSocket = clientSocket;
     this.server = server;
+    this.connectionId = server.nextConnectionId();
+    codec = server.getCodec();
 
-    clientSocket.setSoTimeout(0); // make sure timeout is infinite
+    readyToStop = false;
+    initOutbound();
+    server.startConnection(this); // Start the thread waits for data from the socket
+  }
 
-    //Initialize the objects streams
-    try
-    {
-      input = new ObjectInputStream(clientSocket.getInputStream());
-      output = new ObjectOutputStream(clientSocket.getOutputStream());
-    }
-    catch (IOException ex)
-    {
-      try
-      {
-        closeAll();
-      }
-      catch (Exception exc) { }
+  /**
+   * Constructs a connection served by a <code>NioServerEngine</code>.
+   * No thread is started; the engine reads the channel and calls
+   * <code>processInput</code> when bytes have been received.
+   *
+   * @param server a reference to the server that created
+   *        this instance
+   * @param engine the engine performing the socket I/O.
+   * @param session the engine side state of the connection.
+   * @exception IOException if an I/O error occur when creating
+   *        the connection.
+   */
+  ConnectionToClient(AbstractServer server, NioServerEngine engine,
+    NioServerEngine.Session session) throws IOException
+  {
+    super((Runnable)null);
+    this.clientSocket = session.channel.socket();
+    this.server = server;
+    this.connectionId = server.nextConnectionId();
+    this.engine = engine;
+    this.session = session;
 
-      throw ex;  // Rethrow the exception.
-    }
+    // Workers only run on complete frames, which an object stream
+    // does not have: a partial object would block a worker
+    codec = server.getCodec();
+    if (codec == null)
+      throw new IOException("NIO connections need a codec");
 
+    // A write waits while the socket lags behind; only the writer of
+    // an outbound queue may wait, never a worker handling messages
+    if (server.getOutboundQueueCapacity() <= 0)
+      throw new IOException("NIO connections need an outbound queue");
+
+    // The input stream is created by processInput once the
+    // client's stream header has been received.
+    server.configureSocket(clientSocket);
+    rawOutput = new BufferedOutputStream(
+      engine.new ChannelOutputStream(session), OUTPUT_BUFFER_SIZE);
+    WireFormat.writeHeader(rawOutput, codec);
+    rawOutput.flush();
     readyToStop = false;
-    start(); // Start the thread waits for data from the socket
+    initOutbound();
   }
 
 // INSTANCE METHODS *************************************************
@@ -148,19 +294,155 @@ public class ConnectionToClient extends Thread
    * This method can be overriden, but if so it should still perform
    * the general function of sending to client, by calling the
    * <code>super.sendToClient()</code> method
-   * perhaps after some kind of filtering is done.
+   * perhaps after some kind of filtering is done.<p>
+   *
+   * When the server has an outbound queue, the message is only
+   * queued here and written later by the writer of this connection;
+   * an I/O error while writing is then reported through
+   * <code>AbstractServer.clientException()</code> and closes the
+   * connection.
+   *
+   * Without an outbound queue, the message is written at once, under
+   * a lock of this connection: handlers on different dispatch lanes
+   * may send to the same client concurrently.
+   *
+   * An <code>EncodedMessage</code> is written as is, without being
+   * serialized again.
    *
    * @param msg the message to be sent.
    * @exception IOException if an I/O error occur when sending the
-   *    message.
+   *    message, or if the queue overflowed under
+   *    <code>OverflowPolicy.DISCONNECT</code>.
    */
   public void sendToClient(Object msg) throws IOException
   {
-    if (clientSocket == null || output == null)
+    sendToClient(msg, true);
+  }
+
+  /**
+   * Sends an object to the client, possibly as part of a batch.
+   * Without a flush the message is only buffered; it is sent, together
+   * with the messages written after it, by the next message sent with
+   * a flush or by <code>flush()</code>. A batch of messages to the
+   * same client thus costs a single write to the socket. The bytes of
+   * a message may still leave earlier, when the buffer is full or in
+   * NIO mode.
+   *
+   * @param msg the message to be sent.
+   * @param flush true to send every buffered message now.
+   * @exception IOException if an I/O error occur when sending the
+   *    message, or if the queue overflowed under
+   *    <code>OverflowPolicy.DISCONNECT</code>.
+   * @see #sendToClient(Object)
+   */
+  public void sendToClient(Object msg, boolean flush) throws IOException
+  {
+    if (clientSocket == null || rawOutput == null)
       throw new SocketException("socket does not exist");
-    
-    output.reset();
-    output.writeObject(msg);
+
+    if (outbound == null)
+    {
+      synchronized (writeLock)
+      {
+        writeMessage(msg);
+        if (flush)
+          rawOutput.flush();
+      }
+      return;
+    }
+
+    switch (overflowPolicy)
+    {
+      case BLOCK:
+        try
+        {
+          outbound.put(msg);
+        }
+        catch (InterruptedException ex)
+        {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException();
+        }
+        break;
+
+      case DROP_OLDEST:
+        while (!outbound.offer(msg))
+        {
+          if (outbound.poll() != null)
+            droppedMessages.incrementAndGet();
+        }
+        break;
+
+      case DISCONNECT:
+        if (!outbound.offer(msg))
+        {
+          droppedMessages.incrementAndGet();
+          try
+          {
+            close();
+          }
+          catch (IOException ex) { } // the overflow is what gets reported
+          throw new SocketException("outbound queue overflow");
+        }
+        break;
+    }
+
+    if (flush)
+      flushRequested.set(true); // after the offer: the writer sees both
+    outboundPeak.accumulateAndGet(outbound.size(), Math::max);
+    scheduleWriter();
+  }
+
+  /**
+   * Sends every message buffered by <code>sendToClient(msg, false)</code>.
+   * With an outbound queue, the flush happens once the messages
+   * queued before have been written.
+   *
+   * @exception IOException if an I/O error occur when flushing.
+   */
+  final public void flush() throws IOException
+  {
+    if (clientSocket == null || rawOutput == null)
+      throw new SocketException("socket does not exist");
+
+    if (outbound == null)
+    {
+      synchronized (writeLock)
+      {
+        rawOutput.flush();
+      }
+      return;
+    }
+    flushRequested.set(true);
+    scheduleWriter();
+  }
+
+  /**
+   * Closes the client once every message already passed to
+   * <code>sendToClient</code> has been written. Without an outbound
+   * queue, or when the queue is full, this is the same as
+   * <code>close</code>.
+   *
+   * @exception IOException if an error occurs when closing the socket.
+   */
+  final public void closeAfterSending() throws IOException
+  {
+    if (outbound == null)
+    {
+      try
+      {
+        flush();
+      }
+      catch (IOException ex) { } // closing anyway
+      close();
+      return;
+    }
+    if (!outbound.offer(CLOSE_REQUEST))
+    {
+      close();
+      return;
+    }
+    scheduleWriter();
   }
 
   /**
@@ -174,7 +456,15 @@ public class ConnectionToClient extends Thread
   {
   
     readyToStop = true; // Set the flag that tells the thread to stop
-    closeAll();
+    try
+    {
+      closeAll();
+    }
+    finally
+    {
+      if (engine != null)
+        engine.closed(session);
+    }
   }
 
 // ACCESSING METHODS ------------------------------------------------
@@ -189,6 +479,19 @@ public class ConnectionToClient extends Thread
     return clientSocket == null ? null : clientSocket.getInetAddress();
   }
 
+  /**
+   * Returns the id of this connection. Ids are assigned in accepting
+   * order, never change and are never reused by the server, so they
+   * can designate a client in maps and in messages.
+   *
+   * @return the connection id.
+   * @see AbstractServer#getClientConnection(long)
+   */
+  final public long getConnectionId()
+  {
+    return connectionId;
+  }
+
   /**
    * Returns a string representation of the client.
    *
@@ -224,6 +527,50 @@ public class ConnectionToClient extends Thread
     return savedInfo.get(infoType);
   }
 
+  /**
+   * Returns the tracker applying the reset policy of the server to
+   * this connection, whose counters tell how many descriptor bytes
+   * skipped resets saved.
+   *
+   * @return the reset tracker, or null when a codec is used.
+   */
+  final public ResetTracker getResetTracker()
+  {
+    return resetTracker;
+  }
+
+  /**
+   * Returns the number of messages waiting to be written to the
+   * client. Always 0 when the server has no outbound queue.
+   *
+   * @return the current depth of the outbound queue.
+   */
+  final public int getOutboundQueueSize()
+  {
+    return outbound == null ? 0 : outbound.size();
+  }
+
+  /**
+   * Returns the largest depth the outbound queue ever reached.
+   *
+   * @return the high-water mark of the outbound queue.
+   */
+  final public int getOutboundQueuePeak()
+  {
+    return outboundPeak.get();
+  }
+
+  /**
+   * Returns the number of messages that were discarded because the
+   * outbound queue was full.
+   *
+   * @return the number of dropped messages.
+   */
+  final public long getDroppedMessageCount()
+  {
+    return droppedMessages.get();
+  }
+
 // RUN METHOD -------------------------------------------------------
 
   /**
@@ -233,6 +580,23 @@ public class ConnectionToClient extends Thread
    */
   final public void run()
   {
+    try
+    {
+      handshake();
+    }
+    catch (Exception exception)
+    {
+      // A client that never completed its header is dropped silently
+      try
+      {
+        closeAll();
+      }
+      catch (Exception ex) { }
+      server.removeConnection(this);
+      return;
+    }
+
+    announced = true;
     server.clientConnected(this);
 
     // This loop reads the input stream and responds to messages
@@ -250,7 +614,7 @@ public class ConnectionToClient extends Thread
         try { // Added in version 2.31
         
           // wait to receive an object
-          msg = input.readObject();
+          msg = readMessage();
                   
           if (!readyToStop && handleMessageFromClient(msg)) // Added in version 2.2
           {
@@ -281,7 +645,8 @@ public class ConnectionToClient extends Thread
       }
     } finally {
     
-        server.clientDisconnected(this);   // moved here in version 2.31
+        server.removeConnection(this);
+        server.reportDisconnection(this);   // moved here in version 2.31
     }
   }
 
@@ -303,6 +668,317 @@ public class ConnectionToClient extends Thread
 
 // METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------
 
+  /**
+   * Handles, in NIO mode, every message that can be read from the
+   * bytes received so far. The first call reads the stream header and
+   * calls <code>clientConnected</code>. Exceptions are reported the
+   * same way as in the <code>run</code> method.
+   *
+   * @param buffer the bytes received from the client.
+   * @return false if the connection has ended.
+   */
+  final boolean processInput(NioServerEngine.ChannelInputBuffer buffer)
+  {
+    try
+    {
+      if (!announced)
+      {
+        if (readyToStop)
+          return false;
+
+        // Never wait for the rest of a header on a worker; the
+        // engine closes clients whose header is late
+        if (!canProcess(buffer))
+          return true;
+
+        framedInput = new DataInputStream(buffer);
+        WireFormat.readHeader(framedInput, codec);
+        announced = true;
+        server.clientConnected(this);
+      }
+
+      while (!readyToStop && canProcess(buffer))
+      {
+        try
+        {
+          Object msg = readMessage();
+
+          if (!readyToStop && handleMessageFromClient(msg))
+          {
+            server.receiveMessageFromClient(msg, this);
+          }
+        }
+        catch (ClassNotFoundException ex)
+        {
+          server.clientException(this, ex);
+        }
+        catch (RuntimeException ex)
+        {
+          server.clientException(this, ex);
+        }
+      }
+      return !readyToStop;
+    }
+    catch (Exception exception)
+    {
+      if (!readyToStop)
+      {
+        try
+        {
+          closeAll();
+        }
+        catch (Exception ex) { }
+
+        // A client that never completed its header is dropped silently
+        if (announced)
+          server.clientException(this, exception);
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Tells, in NIO mode, whether <code>processInput</code> would make
+   * progress with the bytes received so far: a complete stream header,
+   * then a complete frame. Partial frames are left in the buffer until
+   * the rest arrives, so a worker never waits for a slow client.
+   *
+   * @param buffer the bytes received from the client.
+   * @return true if the buffer can be processed, or the connection
+   *   is closing.
+   */
+  final boolean canProcess(NioServerEngine.ChannelInputBuffer buffer)
+  {
+    if (readyToStop)
+      return true;
+    if (!announced)
+      return buffer.hasReceived(WireFormat.HEADER_LENGTH);
+    return buffer.hasCompleteFrame();
+  }
+
+  /**
+   * Sets up the streams of a connection run by its own thread: applies
+   * the socket options of the server and exchanges the stream headers.
+   * The client has <code>AbstractServer.getHandshakeTimeout()</code>
+   * ms to send its header.
+   *
+   * @exception IOException if the header is not received in time or
+   *   is invalid.
+   */
+  private void handshake() throws IOException
+  {
+    server.configureSocket(clientSocket);
+    clientSocket.setSoTimeout(server.getHandshakeTimeout());
+
+    OutputStream buffered = new BufferedOutputStream(
+      clientSocket.getOutputStream(), OUTPUT_BUFFER_SIZE);
+    if (codec == null)
+    {
+      input = new ObjectInputStream(clientSocket.getInputStream());
+      resetTracker = new ResetTracker(server.getResetPolicy());
+      output = new ObjectOutputStream(resetTracker.wrap(buffered));
+    }
+    else
+    {
+      framedInput = new DataInputStream(
+        new BufferedInputStream(clientSocket.getInputStream()));
+      WireFormat.readHeader(framedInput, codec);
+      WireFormat.writeHeader(buffered, codec);
+    }
+    buffered.flush(); // the client waits for the stream header
+
+    clientSocket.setSoTimeout(0); // make sure timeout is infinite
+    rawOutput = buffered; // published last: sendToClient may now write
+  }
+
+  /**
+   * Creates the outbound queue if the server asks for one.
+   */
+  private void initOutbound()
+  {
+    int capacity = server.getOutboundQueueCapacity();
+    if (capacity > 0)
+    {
+      outbound = new ArrayBlockingQueue<Object>(capacity);
+      overflowPolicy = server.getOverflowPolicy();
+    }
+  }
+
+  /**
+   * Writes one message on the output stream.
+   *
+   * @param msg the message to be written.
+   * @exception IOException if an I/O error occur when writing.
+   */
+  private void writeMessage(Object msg) throws IOException
+  {
+    if (msg instanceof EncodedMessage)
+    {
+      // With object streams the bytes start with a reset, so the
+      // client's handle table is cleared just as if output had
+      // written the message. It then holds the objects of the encoded
+      // message, which output knows nothing about: output must reset
+      // before writing again. Output itself holds no bytes here, since
+      // writeObject drains its block buffer into rawOutput.
+      writeBytes(((EncodedMessage)msg).bytes());
+      if (resetTracker != null)
+        resetTracker.invalidate();
+      return;
+    }
+
+    if (codec != null)
+    {
+      writeBytes(WireFormat.frame(codec, msg));
+      return;
+    }
+
+    if (resetTracker.beforeWrite(msg))
+      output.reset();
+    output.writeObject(msg);
+    resetTracker.afterWrite(msg);
+  }
+
+  /**
+   * Writes bytes that are never modified afterwards.
+   *
+   * @param bytes the bytes to write.
+   * @exception IOException if an I/O error occur when writing.
+   */
+  private void writeBytes(byte[] bytes) throws IOException
+  {
+    if (engine != null)
+    {
+      rawOutput.flush(); // what was buffered goes first
+      engine.writeShared(session, bytes); // queued without a copy
+    }
+    else
+      rawOutput.write(bytes);
+  }
+
+  /**
+   * Reads the next message from the client.
+   *
+   * @return the message.
+   * @exception IOException if an I/O error occur when reading.
+   * @exception ClassNotFoundException if the class of the message
+   *   is unknown.
+   */
+  private Object readMessage() throws IOException, ClassNotFoundException
+  {
+    if (codec != null)
+      return WireFormat.readFrame(framedInput, codec);
+    return input.readObject();
+  }
+
+  /**
+   * Makes sure a writer task is draining the outbound queue. At most
+   * one writer runs for a given connection, which keeps the messages
+   * in order.
+   */
+  private void scheduleWriter()
+  {
+    if (writing.compareAndSet(false, true))
+    {
+      try
+      {
+        server.getWriterExecutor().execute(this::drainOutbound);
+      }
+      catch (RejectedExecutionException ex)
+      {
+        writing.set(false); // server closed meanwhile
+      }
+    }
+  }
+
+  /**
+   * Writer task: writes every queued message, flushes them together
+   * if any of them asked for it, then gives its thread back. A client
+   * that does not read only ever blocks its own writer.
+   */
+  private void drainOutbound()
+  {
+    try
+    {
+      do
+      {
+        Object msg;
+        while ((msg = outbound.poll()) != null)
+        {
+          if (msg == CLOSE_REQUEST)
+          {
+            rawOutput.flush();
+            if (session != null)
+              session.awaitSent(CLOSE_LINGER);
+            close();
+            return; // the writing flag stays set, nothing more is sent
+          }
+          writeMessage(msg);
+        }
+        if (flushRequested.getAndSet(false))
+          rawOutput.flush();
+        writing.set(false);
+      }
+      while ((!outbound.isEmpty() || flushRequested.get())
+        && writing.compareAndSet(false, true));
+    }
+    catch (Exception exception)
+    {
+      outbound.clear();
+      if (!readyToStop)
+      {
+        server.clientException(this, exception);
+        try
+        {
+          close();
+        }
+        catch (Exception ex) { }
+      }
+    }
+  }
+
+  /**
+   * Called once, in NIO mode, when the connection has ended.
+   */
+  final void connectionEnded()
+  {
+    if (announced)
+      server.reportDisconnection(this);
+  }
+
+  /**
+   * Records the dispatch key of the last received message.
+   *
+   * @param key the dispatch key.
+   */
+  final void setLastDispatchKey(Object key)
+  {
+    lastDispatchKey = key;
+  }
+
+  /**
+   * @return the dispatch key of the last received message, or null.
+   */
+  final Object getLastDispatchKey()
+  {
+    return lastDispatchKey;
+  }
+
+  /**
+   * @return true once the stream headers have been exchanged.
+   */
+  final boolean isAnnounced()
+  {
+    return announced;
+  }
+
+  /**
+   * @return true once closing of the connection has been initiated.
+   */
+  final boolean isClosing()
+  {
+    return readyToStop;
+  }
+
   /**
    * Closes all connection to the server.
    *
@@ -326,6 +1002,8 @@ public class ConnectionToClient extends Thread
       // Close the input stream
       if (input != null)
         input.close();
+      if (framedInput != null)
+        framedInput.close();
     }
     finally
     {
@@ -334,7 +1012,9 @@ public class ConnectionToClient extends Thread
       // of these objects to reclaim system resources if and
       // when they are garbage collected.
       output = null;
+      rawOutput = null;
       input = null;
+      framedInput = null;
       clientSocket = null;
     }
   }
@@ -0,0 +1,99 @@
+package il.cshaifasweng.OCSFMediatorExample.server.ocsf;
+
+import java.io.*;
+
+/**
+ * A message already encoded for the wire. Instances are created by
+ * <code>AbstractServer.encode()</code> and can be passed to
+ * <code>ConnectionToClient.sendToClient()</code> any number of times:
+ * the same bytes are written to every connection instead of
+ * serializing the message again for each recipient.<p>
+ *
+ * The bytes follow the wire format of the server: a frame of its
+ * codec, or, with the object streams, a serialized object preceded by
+ * a stream reset so that they do not depend on what was previously
+ * written on the connection. Instances are immutable and may be
+ * shared between threads.
+ *
+ * @see AbstractServer#encode(Object)
+ */
+public final class EncodedMessage
+{
+  /**
+   * The message that was encoded.
+   */
+  private final Object message;
+
+  /**
+   * The encoded bytes. Never modified once the instance is built.
+   */
+  private final byte[] bytes;
+
+// CONSTRUCTORS *****************************************************
+
+  /**
+   * Constructs an encoded message.
+   *
+   * @param message the message that was encoded.
+   * @param bytes the encoded bytes.
+   */
+  EncodedMessage(Object message, byte[] bytes)
+  {
+    this.message = message;
+    this.bytes = bytes;
+  }
+
+  /**
+   * Encodes a message with Java serialization, the way
+   * <code>ConnectionToClient</code> would write it.
+   *
+   * @param message the message to encode.
+   * @return the encoded message.
+   * @exception IOException if the message cannot be serialized.
+   */
+  static EncodedMessage serialize(Object message) throws IOException
+  {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+    ObjectOutputStream output = new ObjectOutputStream(buffer);
+    output.flush();
+    int headerLength = buffer.size(); // the stream header is not part of the message
+
+    output.reset();
+    output.writeObject(message);
+    output.flush();
+
+    byte[] stream = buffer.toByteArray();
+    byte[] bytes = new byte[stream.length - headerLength];
+    System.arraycopy(stream, headerLength, bytes, 0, bytes.length);
+    return new EncodedMessage(message, bytes);
+  }
+
+// ACCESSING METHODS ------------------------------------------------
+
+  /**
+   * @return the message that was encoded.
+   */
+  public Object getMessage()
+  {
+    return message;
+  }
+
+  /**
+   * @return the number of encoded bytes.
+   */
+  public int size()
+  {
+    return bytes.length;
+  }
+
+  /**
+   * Returns the encoded bytes without copying them. Callers inside
+   * the framework must not modify the array.
+   *
+   * @return the encoded bytes.
+   */
+  byte[] bytes()
+  {
+    return bytes;
+  }
+}
@@ -0,0 +1,736 @@
+package il.cshaifasweng.OCSFMediatorExample.server.ocsf;
+
+import il.cshaifasweng.OCSFMediatorExample.entities.wire.WireFormat;
+
+import java.io.*;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+* The <code> NioServerEngine </code> performs the socket I/O of every
+* connection accepted by an <code>AbstractServer</code> running in
+* <code>ConnectionMode.NIO</code>.<p>
+*
+* A single selector thread reads whatever bytes are available on each
+* channel and writes queued output as the sockets accept it. Read bytes
+* are appended to the inbound buffer of the connection and a decoding
+* task is scheduled on a small worker pool. That task turns the bytes
+* into objects and calls the usual server hooks, then gives its worker
+* back as soon as the buffer is empty. Messages are only decoded once
+* their whole frame has arrived, which is why this mode needs a codec:
+* a worker is never held by a slow or idle client.<p>
+*
+* The hook contract is the one of the thread per connection mode:
+* <code>clientConnected</code> is called once the stream header has
+* been received, messages are handled in order, and
+* <code>clientDisconnected</code> is called exactly once after the last
+* message of the connection has been handled.
+*
+* @see ConnectionMode#NIO
+*/
+final class NioServerEngine implements Runnable
+{
+// INSTANCE VARIABLES ***********************************************
+
+  /**
+   * The server whose connections are served by this engine.
+   */
+  private final AbstractServer server;
+
+  /**
+   * The selector watching all the client channels.
+   */
+  private final Selector selector;
+
+  /**
+   * The pool decoding and handling received messages.
+   */
+  private final ExecutorService workers;
+
+  /**
+   * Channels accepted but not yet registered with the selector.
+   * Registration must be done by the selector thread.
+   */
+  private final Queue<Session> pendingRegistrations =
+    new ConcurrentLinkedQueue<Session>();
+
+  /**
+   * Sessions that have queued output since the last selection and
+   * need their write interest to be turned on.
+   */
+  private final Queue<Session> pendingWrites =
+    new ConcurrentLinkedQueue<Session>();
+
+  /**
+   * Registered sessions whose stream header has not been received
+   * yet, by increasing deadline. Used by the selector thread only.
+   */
+  private final Queue<Session> handshakes = new ArrayDeque<Session>();
+
+  /**
+   * Buffer used by the selector thread for all reads.
+   */
+  private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+
+  /**
+   * Buffers handed to one gathering write by the selector thread.
+   */
+  private final ByteBuffer[] writeBatch = new ByteBuffer[64];
+
+  /**
+   * The number of written but unsent bytes above which a writing
+   * thread waits for the socket to drain. This keeps the memory used
+   * by a client that does not read bounded, and lets the outbound
+   * queue of its connection apply its overflow policy. The writing
+   * thread is the writer of that queue, which NIO mode requires.
+   */
+  static final long OUTPUT_LIMIT = 256 * 1024;
+
+  /**
+   * The selector thread.
+   */
+  private final Thread selectorThread;
+
+  /**
+   * Set when the engine must stop.
+   */
+  private volatile boolean stopped = false;
+
+// CONSTRUCTORS *****************************************************
+
+  /**
+   * Constructs and starts an engine for the given server.
+   *
+   * @param server the server whose connections are served.
+   * @param workerCount the number of threads decoding messages.
+   * @exception IOException if the selector cannot be opened.
+   */
+  NioServerEngine(AbstractServer server, int workerCount) throws IOException
+  {
+    this.server = server;
+    this.selector = Selector.open();
+    this.workers = Executors.newFixedThreadPool(
+      workerCount, AbstractServer.daemonThreads("NIO worker"));
+
+    selectorThread = new Thread(this, "NIO selector");
+    selectorThread.setDaemon(true);
+    selectorThread.start();
+  }
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Hands a freshly accepted channel to the engine. The connection
+   * is created immediately; its reads start once the selector thread
+   * has registered the channel.
+   *
+   * @param channel the accepted channel.
+   * @return the connection to the client.
+   * @exception IOException if the channel cannot be configured.
+   */
+  ConnectionToClient register(SocketChannel channel) throws IOException
+  {
+    channel.configureBlocking(false);
+
+    Session session = new Session(channel);
+    int timeout = server.getHandshakeTimeout();
+    if (timeout > 0)
+      session.handshakeDeadline = System.nanoTime()
+        + TimeUnit.MILLISECONDS.toNanos(timeout);
+    session.connection = new ConnectionToClient(server, this, session);
+    server.addConnection(session.connection);
+
+    pendingRegistrations.add(session);
+    selector.wakeup();
+    return session.connection;
+  }
+
+  /**
+   * Stops the selector thread and the workers. Connections still
+   * open are not closed; the server closes them before calling
+   * this method.
+   */
+  void shutdown()
+  {
+    stopped = true;
+    selector.wakeup();
+    workers.shutdown();
+  }
+
+  /**
+   * Called by a connection that is being closed locally. The
+   * disconnection is reported by the decoding task so that it always
+   * follows the last handled message.
+   *
+   * @param session the session of the closed connection.
+   */
+  void closed(Session session)
+  {
+    selector.wakeup(); // a registered channel is only released by the selector
+    scheduleDecode(session);
+  }
+
+// RUN METHOD -------------------------------------------------------
+
+  /**
+   * Runs the selector loop. Not to be called.
+   */
+  public void run()
+  {
+    try
+    {
+      while (!stopped)
+      {
+        selector.select(untilNextDeadline());
+
+        registerPending();
+        enableWrites();
+
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext())
+        {
+          SelectionKey key = keys.next();
+          keys.remove();
+
+          Session session = (Session)key.attachment();
+          try
+          {
+            if (key.isValid() && key.isReadable())
+              read(session);
+            if (key.isValid() && key.isWritable())
+              write(session);
+          }
+          catch (CancelledKeyException ex) {} // closed meanwhile
+          catch (IOException ex)
+          {
+            key.cancel();
+            session.input.endOfStream();
+            session.sent(0); // wake up writers waiting on a dead socket
+            scheduleDecode(session);
+          }
+        }
+
+        sweepHandshakes();
+      }
+    }
+    catch (IOException ex)
+    {
+      server.listeningException(ex);
+    }
+    finally
+    {
+      try
+      {
+        selector.close();
+      }
+      catch (IOException ex) {}
+    }
+  }
+
+// METHODS USED BY THE SELECTOR THREAD ONLY -------------------------
+
+  /**
+   * Registers the channels accepted since the last selection.
+   */
+  private void registerPending()
+  {
+    Session session;
+    while ((session = pendingRegistrations.poll()) != null)
+    {
+      try
+      {
+        session.key = session.channel.register(
+          selector, SelectionKey.OP_READ, session);
+        if (!session.outbound.isEmpty())
+          session.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        if (session.handshakeDeadline != 0)
+          handshakes.add(session);
+      }
+      catch (ClosedChannelException ex)
+      {
+        session.input.endOfStream();
+        scheduleDecode(session);
+      }
+    }
+  }
+
+  /**
+   * @return how long, in ms, the selector may block before the next
+   *   handshake deadline, 0 meaning without limit.
+   */
+  private long untilNextDeadline()
+  {
+    Session session = handshakes.peek();
+    if (session == null)
+      return 0;
+    long remaining = TimeUnit.NANOSECONDS.toMillis(
+      session.handshakeDeadline - System.nanoTime());
+    return Math.max(1, remaining);
+  }
+
+  /**
+   * Closes the connections whose client has not sent its stream
+   * header in time. The closing is reported like any other, without
+   * calling <code>clientDisconnected</code> since the client was never
+   * announced.
+   */
+  private void sweepHandshakes()
+  {
+    long now = System.nanoTime();
+    Session session;
+    while ((session = handshakes.peek()) != null)
+    {
+      boolean pending = !session.connection.isAnnounced()
+        && !session.finished.get();
+      if (pending && now - session.handshakeDeadline < 0)
+        return; // the deadlines that follow are later
+
+      handshakes.poll();
+      if (pending)
+      {
+        try
+        {
+          session.connection.close();
+        }
+        catch (IOException ex) {}
+      }
+    }
+  }
+
+  /**
+   * Turns on the write interest of the sessions with queued output.
+   */
+  private void enableWrites()
+  {
+    Session session;
+    while ((session = pendingWrites.poll()) != null)
+    {
+      SelectionKey key = session.key;
+      if (key != null && key.isValid())
+        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+    }
+  }
+
+  /**
+   * Reads the available bytes of a channel into its inbound buffer.
+   */
+  private void read(Session session) throws IOException
+  {
+    readBuffer.clear();
+    int count = session.channel.read(readBuffer);
+
+    if (count < 0)
+    {
+      session.key.cancel();
+      session.input.endOfStream();
+    }
+    else if (count > 0)
+    {
+      readBuffer.flip();
+      byte[] bytes = new byte[count];
+      readBuffer.get(bytes);
+      session.input.append(bytes);
+    }
+    else
+    {
+      return;
+    }
+
+    scheduleDecode(session);
+  }
+
+  /**
+   * Writes as much queued output as the socket accepts.
+   */
+  private void write(Session session) throws IOException
+  {
+    while (!session.outbound.isEmpty())
+    {
+      // Everything queued so far leaves in one gathering write, so
+      // messages queued back to back share segments
+      int count = 0;
+      for (ByteBuffer buffer : session.outbound)
+      {
+        writeBatch[count++] = buffer;
+        if (count == writeBatch.length)
+          break;
+      }
+      session.channel.write(writeBatch, 0, count);
+
+      boolean full = false;
+      for (int i = 0; i < count && !full; i++)
+      {
+        ByteBuffer buffer = writeBatch[i];
+        if (buffer.hasRemaining())
+        {
+          full = true;
+        }
+        else
+        {
+          session.outbound.poll();
+          session.sent(buffer.limit());
+        }
+      }
+      Arrays.fill(writeBatch, 0, count, null);
+      if (full)
+        return; // socket is full, wait for the next write event
+    }
+
+    session.key.interestOps(SelectionKey.OP_READ);
+    session.writeRequested.set(false);
+
+    // Output queued between the last poll and the flag reset
+    if (!session.outbound.isEmpty()
+      && session.writeRequested.compareAndSet(false, true))
+    {
+      session.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+  }
+
+// METHODS USED BY ANY THREAD ---------------------------------------
+
+  /**
+   * Queues bytes to be written to a channel.
+   */
+  private void enqueue(Session session, ByteBuffer buffer)
+  {
+    session.queuedBytes.addAndGet(buffer.limit());
+    session.outbound.add(buffer);
+    if (session.writeRequested.compareAndSet(false, true))
+    {
+      pendingWrites.add(session);
+      selector.wakeup();
+    }
+  }
+
+  /**
+   * Queues bytes shared with other connections. The array is not
+   * copied; it must never be modified afterwards.
+   *
+   * @param session the session to write to.
+   * @param bytes the bytes to write.
+   * @exception IOException if the channel is closed.
+   */
+  void writeShared(Session session, byte[] bytes) throws IOException
+  {
+    if (!session.channel.isOpen())
+      throw new SocketException("socket does not exist");
+    enqueue(session, ByteBuffer.wrap(bytes));
+    session.awaitDrained();
+  }
+
+  /**
+   * Makes sure a decoding task will look at the session. At most one
+   * task runs for a given session at any time, which keeps the
+   * messages of a connection in order.
+   */
+  private void scheduleDecode(Session session)
+  {
+    if (session.decoding.compareAndSet(false, true))
+    {
+      try
+      {
+        workers.execute(() -> decode(session));
+      }
+      catch (RejectedExecutionException ex)
+      {
+        session.decoding.set(false); // engine shut down
+      }
+    }
+  }
+
+  /**
+   * Decoding task: handles every complete message of a session, then
+   * gives the worker back.
+   */
+  private void decode(Session session)
+  {
+    ConnectionToClient connection = session.connection;
+    try
+    {
+      while (true)
+      {
+        if (!connection.processInput(session.input))
+        {
+          finish(session);
+          return; // the decoding flag stays set, no task will follow
+        }
+
+        session.decoding.set(false);
+
+        if (!connection.canProcess(session.input)
+          || !session.decoding.compareAndSet(false, true))
+        {
+          return;
+        }
+      }
+    }
+    catch (Throwable ex)
+    {
+      server.clientException(connection, ex);
+      session.decoding.set(false);
+    }
+  }
+
+  /**
+   * Reports the end of a connection, once.
+   */
+  private void finish(Session session)
+  {
+    if (session.finished.compareAndSet(false, true))
+    {
+      server.removeConnection(session.connection);
+      session.connection.connectionEnded();
+    }
+  }
+
+// NESTED CLASSES ---------------------------------------------------
+
+  /**
+   * The engine side state of one connection.
+   */
+  static final class Session
+  {
+    final SocketChannel channel;
+    final ChannelInputBuffer input = new ChannelInputBuffer();
+    final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<ByteBuffer>();
+    final AtomicBoolean writeRequested = new AtomicBoolean();
+    final AtomicBoolean decoding = new AtomicBoolean();
+    final AtomicBoolean finished = new AtomicBoolean();
+    final AtomicLong queuedBytes = new AtomicLong();
+    long handshakeDeadline; // System.nanoTime() value, 0 for none
+    volatile SelectionKey key;
+    ConnectionToClient connection;
+
+    Session(SocketChannel channel)
+    {
+      this.channel = channel;
+    }
+
+    /**
+     * Called by the selector thread after bytes have been sent.
+     */
+    void sent(long count)
+    {
+      long left = queuedBytes.addAndGet(-count);
+      if (left <= OUTPUT_LIMIT || !channel.isOpen())
+      {
+        synchronized (this)
+        {
+          notifyAll();
+        }
+      }
+    }
+
+    /**
+     * Waits until every queued byte has been sent, the channel has
+     * been closed, or the given time has elapsed.
+     */
+    void awaitSent(long timeout) throws InterruptedException
+    {
+      long deadline = System.currentTimeMillis() + timeout;
+      synchronized (this)
+      {
+        long remaining;
+        while (queuedBytes.get() > 0 && channel.isOpen()
+          && (remaining = deadline - System.currentTimeMillis()) > 0)
+        {
+          wait(remaining);
+        }
+      }
+    }
+
+    /**
+     * Waits while too many bytes are waiting to be sent.
+     */
+    void awaitDrained() throws IOException
+    {
+      if (queuedBytes.get() <= OUTPUT_LIMIT)
+        return;
+
+      synchronized (this)
+      {
+        while (queuedBytes.get() > OUTPUT_LIMIT)
+        {
+          if (!channel.isOpen())
+            throw new SocketException("socket closed");
+          try
+          {
+            wait(100);
+          }
+          catch (InterruptedException ex)
+          {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * The stream a connection uses to write to its channel.
+   * Every write is copied and queued for the selector thread.
+   */
+  final class ChannelOutputStream extends OutputStream
+  {
+    private final Session session;
+
+    ChannelOutputStream(Session session)
+    {
+      this.session = session;
+    }
+
+    public void write(int b) throws IOException
+    {
+      write(new byte[] { (byte)b }, 0, 1);
+    }
+
+    public void write(byte[] bytes, int offset, int length) throws IOException
+    {
+      if (!session.channel.isOpen())
+        throw new SocketException("socket does not exist");
+      if (length > 0)
+      {
+        enqueue(session, ByteBuffer.wrap(Arrays.copyOfRange(bytes, offset, offset + length)));
+        session.awaitDrained();
+      }
+    }
+  }
+
+  /**
+   * The bytes received on a channel and not yet decoded. Reading
+   * blocks while no bytes are available; a connection only reads what
+   * it knows has been received.
+   */
+  static final class ChannelInputBuffer extends InputStream
+  {
+    private final ArrayDeque<byte[]> chunks = new ArrayDeque<byte[]>();
+    private int position = 0;
+    private int available = 0;
+    private boolean endOfStream = false;
+
+    synchronized void append(byte[] bytes)
+    {
+      chunks.add(bytes);
+      available += bytes.length;
+      notifyAll();
+    }
+
+    synchronized void endOfStream()
+    {
+      endOfStream = true;
+      notifyAll();
+    }
+
+    /**
+     * @return true if a complete frame of the wire format has been
+     *   received, or if the stream has ended.
+     */
+    synchronized boolean hasCompleteFrame()
+    {
+      if (endOfStream)
+        return true;
+      if (available < WireFormat.LENGTH_PREFIX)
+        return false;
+
+      int length = 0;
+      int skipped = 0;
+      Iterator<byte[]> it = chunks.iterator();
+      byte[] chunk = it.next();
+      int index = position;
+      while (skipped < WireFormat.LENGTH_PREFIX)
+      {
+        if (index == chunk.length)
+        {
+          chunk = it.next();
+          index = 0;
+        }
+        length = (length << 8) | (chunk[index++] & 0xff);
+        skipped++;
+      }
+      // A corrupt length is left for the reader to reject
+      return length < 0 || available - WireFormat.LENGTH_PREFIX >= length;
+    }
+
+    /**
+     * @return true if at least the given number of bytes have been
+     *   received, or if the stream has ended.
+     */
+    synchronized boolean hasReceived(int count)
+    {
+      return available >= count || endOfStream;
+    }
+
+    public synchronized int available()
+    {
+      return available;
+    }
+
+    public synchronized int read() throws IOException
+    {
+      if (!awaitData())
+        return -1;
+
+      byte[] chunk = chunks.peek();
+      int b = chunk[position++] & 0xff;
+      consumed(chunk, 1);
+      return b;
+    }
+
+    public synchronized int read(byte[] bytes, int offset, int length) throws IOException
+    {
+      if (length == 0)
+        return 0;
+      if (!awaitData())
+        return -1;
+
+      byte[] chunk = chunks.peek();
+      int count = Math.min(length, chunk.length - position);
+      System.arraycopy(chunk, position, bytes, offset, count);
+      position += count;
+      consumed(chunk, count);
+      return count;
+    }
+
+    public synchronized void close()
+    {
+      endOfStream();
+    }
+
+    private boolean awaitData() throws IOException
+    {
+      while (available == 0)
+      {
+        if (endOfStream)
+          return false;
+        try
+        {
+          wait();
+        }
+        catch (InterruptedException ex)
+        {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException();
+        }
+      }
+      return true;
+    }
+
+    private void consumed(byte[] chunk, int count)
+    {
+      available -= count;
+      if (position == chunk.length)
+      {
+        chunks.poll();
+        position = 0;
+      }
+    }
+  }
+}
+// End of NioServerEngine class
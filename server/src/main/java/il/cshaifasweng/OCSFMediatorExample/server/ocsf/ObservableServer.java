@@ -7,6 +7,7 @@ package il.cshaifasweng.OCSFMediatorExample.server.ocsf;
 import java.util.*;
 import java.io.*;
 import java.net.*;
+import java.util.function.Consumer;
 
 /**
  * This class acts as a subclass of <code>AbstractServer</code>
@@ -142,6 +143,26 @@ public class ObservableServer extends Observable
     return service.getClientConnections();
   }
 
+  /**
+   * Performs an action on every existing client connection, without
+   * copying them first.
+   *
+   * @param action the action to perform.
+   */
+  final public void forEachClient(Consumer<? super ConnectionToClient> action)
+  {
+    service.forEachClient(action);
+  }
+
+  /**
+   * @param connectionId the id of a connection.
+   * @return the connection with the given id, or null if it has ended.
+   */
+  final public ConnectionToClient getClientConnection(long connectionId)
+  {
+    return service.getClientConnection(connectionId);
+  }
+
   /**
    * @return the number of clients currently connected.
    */
@@ -0,0 +1,26 @@
+package il.cshaifasweng.OCSFMediatorExample.server.ocsf;
+
+/**
+ * What <code>ConnectionToClient.sendToClient()</code> does when the
+ * outbound queue of a connection is full, i.e. when the client reads
+ * more slowly than the server produces messages for it.
+ *
+ * @see AbstractServer#setOutboundQueue(int, OverflowPolicy)
+ */
+public enum OverflowPolicy
+{
+  /**
+   * The sending thread waits until the queue has room.
+   */
+  BLOCK,
+
+  /**
+   * The oldest queued message is discarded to make room.
+   */
+  DROP_OLDEST,
+
+  /**
+   * The connection is closed and the send fails.
+   */
+  DISCONNECT
+}
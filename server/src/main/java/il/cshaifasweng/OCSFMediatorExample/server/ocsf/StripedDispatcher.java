@@ -0,0 +1,87 @@
+package il.cshaifasweng.OCSFMediatorExample.server.ocsf;
+
+import java.util.concurrent.*;
+
+/**
+* The <code> StripedDispatcher </code> runs message handling tasks on a
+* fixed set of lanes. Each lane is a single thread with its own queue
+* and every key is always mapped to the same lane, so the tasks of a
+* key run one at a time and in submission order while tasks of keys
+* mapped to other lanes run in parallel.<p>
+*
+* Two keys may share a lane; they are then serialized with each other
+* too, which is harmless but costs parallelism. Using more lanes than
+* cores makes such collisions rarer.
+*
+* @see AbstractServer#setDispatchLanes(int)
+*/
+final class StripedDispatcher
+{
+// INSTANCE VARIABLES ***********************************************
+
+  /**
+   * The lanes. Each one is a single threaded executor.
+   */
+  private final ExecutorService[] lanes;
+
+// CONSTRUCTORS *****************************************************
+
+  /**
+   * Constructs a dispatcher.
+   *
+   * @param laneCount the number of lanes.
+   */
+  StripedDispatcher(int laneCount)
+  {
+    lanes = new ExecutorService[laneCount];
+    for (int i = 0; i < laneCount; i++)
+    {
+      lanes[i] = Executors.newSingleThreadExecutor(
+        AbstractServer.daemonThreads("Dispatch lane " + i));
+    }
+  }
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Queues a task on the lane of its key.
+   *
+   * @param key the key serializing the task, never null.
+   * @param task the task.
+   * @exception RejectedExecutionException if the dispatcher has been
+   *   shut down.
+   */
+  void dispatch(Object key, Runnable task)
+  {
+    lanes[laneOf(key)].execute(task);
+  }
+
+  /**
+   * Lets the queued tasks finish, then stops the lanes.
+   */
+  void shutdown()
+  {
+    for (ExecutorService lane : lanes)
+      lane.shutdown();
+  }
+
+  /**
+   * @return the number of lanes.
+   */
+  int getLaneCount()
+  {
+    return lanes.length;
+  }
+
+  /**
+   * Maps a key to a lane, spreading the bits of the hash code the way
+   * <code>HashMap</code> does so that similar keys use different lanes.
+   */
+  private int laneOf(Object key)
+  {
+    int h = key.hashCode();
+    h ^= (h >>> 16);
+    return (h & 0x7fffffff) % lanes.length;
+  }
+}
+// End of StripedDispatcher class
@@ -0,0 +1,84 @@
+package il.cshaifasweng.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import il.cshaifasweng.OCSFMediatorExample.server.AlphaBetaBot;
+import il.cshaifasweng.OCSFMediatorExample.server.BoardEngine;
+import il.cshaifasweng.OCSFMediatorExample.server.TranspositionTable;
+import il.cshaifasweng.OCSFMediatorExample.server.XoBoard;
+
+import org.junit.Test;
+
+/**
+ * Move choices of the alpha-beta bot.
+ */
+public class AlphaBetaBotTest
+{
+    private final AlphaBetaBot bot = new AlphaBetaBot(new TranspositionTable(1 << 16), Runnable::run, 1000);
+
+    @Test
+    public void takesTheWinBeforeBlocking()
+    {
+        // X to move can win on the top row or block O's middle row
+        XoBoard board = new XoBoard();
+        board.place(0, 0, 'X');
+        board.place(1, 0, 'O');
+        board.place(0, 1, 'X');
+        board.place(1, 1, 'O');
+
+        assertEquals(2, bot.bestMove(board, 'X'));
+        assertEquals('\0', board.get(0, 2)); // the board is left as it was
+    }
+
+    @Test
+    public void blocksTheOpponent()
+    {
+        XoBoard board = new XoBoard();
+        board.place(0, 0, 'X');
+        board.place(1, 1, 'O');
+        board.place(2, 2, 'X');
+        board.place(0, 2, 'O');
+
+        assertEquals(2 * 3, bot.bestMove(board, 'X'));
+    }
+
+    @Test
+    public void perfectPlayIsADraw()
+    {
+        XoBoard board = new XoBoard();
+        char side = 'X';
+        char result = BoardEngine.NONE;
+        while (result == BoardEngine.NONE)
+        {
+            int cell = bot.bestMove(board, side);
+            result = board.place(cell / 3, cell % 3, side);
+            side = side == 'X' ? 'O' : 'X';
+        }
+        assertEquals(BoardEngine.DRAW, result);
+    }
+
+    @Test
+    public void blocksAnOpenFourOnALargeBoard()
+    {
+        BoardEngine board = BoardEngine.create(15, 5);
+        for (int c = 5; c < 9; c++)
+        {
+            board.place(7, c, 'O');
+        }
+        board.place(0, 0, 'X');
+        board.place(0, 1, 'X');
+        board.place(0, 2, 'X');
+
+        int cell = bot.bestMove(board, 'X');
+        assertTrue(cell == 7 * 15 + 4 || cell == 7 * 15 + 9);
+    }
+
+    @Test
+    public void playsOnTheExecutor()
+    {
+        int[] chosen = {-2};
+        bot.play(new XoBoard(), 'X', cell -> chosen[0] = cell);
+        assertTrue(chosen[0] >= 0 && chosen[0] < 9);
+    }
+}
@@ -0,0 +1,132 @@
+package il.cshaifasweng.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import il.cshaifasweng.OCSFMediatorExample.entities.BoardDelta;
+import il.cshaifasweng.OCSFMediatorExample.entities.BoardUpdate;
+import il.cshaifasweng.OCSFMediatorExample.entities.GameStart;
+import il.cshaifasweng.OCSFMediatorExample.entities.MoveRequest;
+import il.cshaifasweng.OCSFMediatorExample.entities.Warning;
+import il.cshaifasweng.OCSFMediatorExample.entities.wire.CompactCodec;
+import il.cshaifasweng.OCSFMediatorExample.entities.wire.SerializationCodec;
+import il.cshaifasweng.OCSFMediatorExample.entities.wire.WireFormat;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.StreamCorruptedException;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Round trips of the game messages through the compact codec.
+ */
+public class CompactCodecTest
+{
+    private final CompactCodec codec = CompactCodec.INSTANCE;
+
+    @Test
+    public void moveRequestIsNineBytes() throws Exception
+    {
+        byte[] payload = codec.encode(new MoveRequest(2, 1, 7));
+        MoveRequest move = (MoveRequest) codec.decode(payload);
+
+        assertEquals(9, payload.length);
+        assertEquals(2, move.getRow());
+        assertEquals(1, move.getCol());
+        assertEquals(7, move.getSeq());
+        assertTrue(payload.length < SerializationCodec.INSTANCE.encode(new MoveRequest(2, 1)).length);
+    }
+
+    @Test
+    public void boardUpdateRoundTrip() throws Exception
+    {
+        char[][] board = {{'X', '\0', 'O'}, {'\0', 'X', '\0'}, {'O', '\0', 'X'}};
+        BoardUpdate update = (BoardUpdate) codec.decode(codec.encode(new BoardUpdate(board, 'O', true, 'X', 5)));
+
+        for (int r = 0; r < 3; r++) {
+            assertArrayEquals(board[r], update.getBoard()[r]);
+        }
+        assertEquals('O', update.getNextTurn());
+        assertTrue(update.isGameOver());
+        assertEquals('X', update.getWinner());
+        assertEquals(5, update.getSeq());
+    }
+
+    @Test
+    public void boardDeltaIsSixteenBytes() throws Exception
+    {
+        byte[] payload = codec.encode(new BoardDelta(42, 14, 3, 'O', 'X', true, 'O'));
+        BoardDelta delta = (BoardDelta) codec.decode(payload);
+
+        assertEquals(16, payload.length);
+        assertEquals(42, delta.getSeq());
+        assertEquals(14, delta.getRow());
+        assertEquals(3, delta.getCol());
+        assertEquals('O', delta.getSymbol());
+        assertEquals('X', delta.getNextTurn());
+        assertTrue(delta.isGameOver());
+        assertEquals('O', delta.getWinner());
+    }
+
+    @Test
+    public void otherMessagesRoundTrip() throws Exception
+    {
+        GameStart start = (GameStart) codec.decode(codec.encode(new GameStart('O', true)));
+        assertEquals('O', start.getSymbol());
+        assertTrue(start.isYourTurn());
+
+        LocalTime time = LocalTime.of(12, 34, 56);
+        Warning warning = (Warning) codec.decode(codec.encode(new Warning("héllo", time)));
+        assertEquals("héllo", warning.getMessage());
+        assertEquals(time, warning.getTime());
+
+        assertEquals("add client", codec.decode(codec.encode("add client")));
+        assertNull(codec.decode(codec.encode(null)));
+    }
+
+    @Test
+    public void unknownTypesFallBackToSerialization() throws Exception
+    {
+        ArrayList<Integer> list = new ArrayList<>(Arrays.asList(1, 2, 3));
+        assertEquals(list, codec.decode(codec.encode(list)));
+    }
+
+    @Test
+    public void framesAreLengthPrefixed() throws Exception
+    {
+        byte[] frame = WireFormat.frame(codec, new MoveRequest(0, 2));
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+
+        MoveRequest move = (MoveRequest) WireFormat.readFrame(in, codec);
+        assertEquals(2, move.getCol());
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void bogusLengthsAreRejectedBeforeAllocating() throws Exception
+    {
+        // A string claiming 2 GB, and a board claiming 65535 rows, in a few bytes
+        byte[][] payloads = {
+            {1, 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff},
+            {3, (byte) 0xff, (byte) 0xff, 0, 3},
+        };
+        for (byte[] payload : payloads)
+        {
+            try
+            {
+                codec.decode(payload);
+                fail("decoded a length longer than the payload");
+            }
+            catch (StreamCorruptedException expected)
+            {
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package il.cshaifasweng.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import il.cshaifasweng.OCSFMediatorExample.server.GameJournal;
+import il.cshaifasweng.OCSFMediatorExample.server.RecoveredGame;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Recovery of unfinished games from the move journal.
+ */
+public class GameJournalTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void rebuildsGamesInProgress() throws Exception
+    {
+        Path dir = folder.getRoot().toPath();
+        try (GameJournal journal = new GameJournal(dir))
+        {
+            journal.roomOpened(1, 3, 3, '1', 'X');
+            journal.moved(1, 1, 1, 1, 'X');
+            journal.moved(1, 2, 0, 0, 'O');
+            journal.roomOpened(2, 3, 3, '2', 'O');
+            journal.roomClosed(2);
+            journal.roomOpened(3, 3, 3, '1', 'X'); // won, so not in progress
+            journal.moved(3, 1, 0, 0, 'X');
+            journal.moved(3, 2, 1, 0, 'O');
+            journal.moved(3, 3, 0, 1, 'X');
+            journal.moved(3, 4, 1, 1, 'O');
+            journal.moved(3, 5, 0, 2, 'X');
+        }
+
+        try (GameJournal journal = new GameJournal(dir))
+        {
+            List<RecoveredGame> games = new ArrayList<>(journal.getRecoveredGames());
+            assertEquals(1, games.size());
+            RecoveredGame game = games.get(0);
+            assertEquals(1, game.getRoomId());
+            assertEquals(2, game.getSeq());
+            assertEquals('X', game.getBoard().get(1, 1));
+            assertEquals('O', game.getBoard().get(0, 0));
+            assertEquals('X', game.getCurrentTurn());
+            assertFalse(game.isGameOver());
+            assertEquals(3, journal.getLastRoomId());
+        }
+    }
+
+    @Test
+    public void keepsTheSessionTokensThroughASnapshot() throws Exception
+    {
+        Path dir = folder.getRoot().toPath();
+        try (GameJournal journal = new GameJournal(dir))
+        {
+            journal.roomOpened(1, 3, 3, '1', 'X', "token-of-1", "token-of-2");
+            journal.roomOpened(2, 3, 3, '2', 'O', "token-of-3", null);
+        }
+
+        try (GameJournal journal = new GameJournal(dir))
+        {
+            journal.snapshot(journal::getRecoveredGames, journal.getLastRoomId());
+        }
+        try (GameJournal journal = new GameJournal(dir))
+        {
+            List<RecoveredGame> games = new ArrayList<>(journal.getRecoveredGames());
+            assertEquals(2, games.size());
+            assertEquals("token-of-1", games.get(0).getToken1());
+            assertEquals("token-of-2", games.get(0).getToken2());
+            assertEquals("token-of-3", games.get(1).getToken1());
+            assertNull(games.get(1).getToken2());
+        }
+    }
+
+    @Test
+    public void ignoresATornRecordAndKeepsAppending() throws Exception
+    {
+        Path dir = folder.getRoot().toPath();
+        try (GameJournal journal = new GameJournal(dir))
+        {
+            journal.roomOpened(7, 3, 3, '1', 'X');
+            journal.moved(7, 1, 2, 2, 'X');
+        }
+
+        // A crash in the middle of the next record
+        File segment = dir.toFile().listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw"))
+        {
+            long end = 2 * 8 + 17 + 19;
+            file.seek(end);
+            file.writeInt(19);
+            file.writeInt(0xBADC0DE);
+            file.write(new byte[] {2, 0, 0});
+        }
+
+        try (GameJournal journal = new GameJournal(dir))
+        {
+            assertEquals(1, journal.getRecoveredGames().iterator().next().getSeq());
+            journal.moved(7, 2, 0, 0, 'O');
+        }
+        try (GameJournal journal = new GameJournal(dir))
+        {
+            RecoveredGame game = journal.getRecoveredGames().iterator().next();
+            assertEquals(2, game.getSeq());
+            assertEquals('O', game.getBoard().get(0, 0));
+        }
+    }
+
+    @Test
+    public void snapshotLetsOldSegmentsGo() throws Exception
+    {
+        Path dir = folder.getRoot().toPath();
+        try (GameJournal journal = new GameJournal(dir, 1024))
+        {
+            for (long room = 1; room <= 60; room++)
+            {
+                journal.roomOpened(room, 15, 5, '1', 'X');
+                journal.moved(room, 1, 7, 7, 'X');
+            }
+            journal.roomClosed(60);
+        }
+
+        try (GameJournal journal = new GameJournal(dir, 1024))
+        {
+            journal.snapshot(journal::getRecoveredGames, journal.getLastRoomId());
+            journal.moved(1, 2, 7, 8, 'O');
+            journal.roomClosed(2);
+            journal.roomOpened(61, 3, 3, '2', 'O');
+        }
+
+        // One snapshot and the segment holding its mark remain
+        String[] files = dir.toFile().list();
+        assertEquals(2, files.length);
+
+        try (GameJournal journal = new GameJournal(dir, 1024))
+        {
+            assertEquals(59, journal.getRecoveredGames().size());
+            assertEquals(61, journal.getLastRoomId());
+            RecoveredGame first = journal.getRecoveredGames().iterator().next();
+            assertEquals(1, first.getRoomId());
+            assertEquals(2, first.getSeq());
+            assertEquals('O', first.getBoard().get(7, 8));
+            assertEquals('X', first.getCurrentTurn());
+        }
+    }
+
+    @Test
+    public void rollsOverToNewSegments() throws Exception
+    {
+        Path dir = folder.getRoot().toPath();
+        try (GameJournal journal = new GameJournal(dir, 1024))
+        {
+            for (long room = 1; room <= 100; room++)
+            {
+                journal.roomOpened(room, 15, 5, '1', 'X');
+                journal.moved(room, 1, 7, 7, 'X');
+            }
+        }
+
+        assertTrue(dir.toFile().listFiles().length > 1);
+        try (GameJournal journal = new GameJournal(dir, 1024))
+        {
+            assertEquals(100, journal.getRecoveredGames().size());
+            for (RecoveredGame game : journal.getRecoveredGames())
+            {
+                assertEquals('X', game.getBoard().get(7, 7));
+                assertEquals('O', game.getCurrentTurn());
+            }
+        }
+    }
+}
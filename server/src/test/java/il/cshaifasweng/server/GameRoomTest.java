@@ -0,0 +1,67 @@
+package il.cshaifasweng.server;
+
+import static org.junit.Assert.assertEquals;
+
+import il.cshaifasweng.OCSFMediatorExample.entities.BoardDelta;
+import il.cshaifasweng.OCSFMediatorExample.entities.GameStart;
+import il.cshaifasweng.OCSFMediatorExample.entities.MoveRequest;
+import il.cshaifasweng.OCSFMediatorExample.entities.SessionToken;
+import il.cshaifasweng.OCSFMediatorExample.server.SimpleServer;
+import il.cshaifasweng.server.SimpleServerTest.Player;
+
+import java.net.ServerSocket;
+
+import org.junit.Test;
+
+/**
+ * Numbered moves in a room between two players
+ */
+public class GameRoomTest
+{
+    private static void assertDelta(int seq, int row, int col, BoardDelta delta)
+    {
+        assertEquals(seq, delta.getSeq());
+        assertEquals(row, delta.getRow());
+        assertEquals(col, delta.getCol());
+    }
+
+    @Test
+    public void playsARetriedMoveOnceAndDropsOneAheadOfTheGame() throws Exception
+    {
+        int port;
+        try (ServerSocket free = new ServerSocket(0))
+        {
+            port = free.getLocalPort();
+        }
+        SimpleServer server = new SimpleServer(port);
+        server.listen();
+        try (Player player1 = new Player(server); Player player2 = new Player(server))
+        {
+            player1.next(SessionToken.class);
+            player2.next(SessionToken.class);
+            player1.send("#play");
+            player2.send("#play");
+            boolean firstMoves = player1.next(GameStart.class).isYourTurn();
+            player2.next(GameStart.class);
+            Player mover = firstMoves ? player1 : player2;
+            Player other = firstMoves ? player2 : player1;
+
+            // The retry is answered to its sender only, with the move already played
+            mover.send(new MoveRequest(1, 1, 1));
+            mover.send(new MoveRequest(1, 1, 1));
+            assertDelta(1, 1, 1, mover.next(BoardDelta.class));
+            assertDelta(1, 1, 1, mover.next(BoardDelta.class));
+            assertDelta(1, 1, 1, other.next(BoardDelta.class));
+
+            // Move 5 cannot follow move 1: only move 2 is played
+            other.send(new MoveRequest(2, 2, 5));
+            other.send(new MoveRequest(0, 0, 2));
+            assertDelta(2, 0, 0, other.next(BoardDelta.class));
+            assertDelta(2, 0, 0, mover.next(BoardDelta.class));
+        }
+        finally
+        {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package il.cshaifasweng.server;
+
+import static org.junit.Assert.assertEquals;
+
+import il.cshaifasweng.OCSFMediatorExample.server.BoardEngine;
+import il.cshaifasweng.OCSFMediatorExample.server.GridBoard;
+import il.cshaifasweng.OCSFMediatorExample.server.XoBoard;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * K-in-a-row detection on boards of any size.
+ */
+public class GridBoardTest
+{
+    @Test
+    public void gomokuLinesInEveryDirection()
+    {
+        int[][] directions = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+        for (int[] d : directions)
+        {
+            GridBoard board = new GridBoard(15, 5);
+            // Placed out of order so that the last stone joins two runs
+            int[] order = {0, 1, 3, 4, 2};
+            for (int i = 0; i < order.length; i++)
+            {
+                int r = 7 + d[0] * order[i];
+                int c = 7 + d[1] * order[i];
+                char expected = i == order.length - 1 ? 'X' : BoardEngine.NONE;
+                assertEquals(expected, board.place(r, c, 'X'));
+            }
+        }
+    }
+
+    @Test
+    public void fourInARowDoesNotWinGomoku()
+    {
+        GridBoard board = new GridBoard(19, 5);
+        for (int c = 0; c < 4; c++)
+        {
+            assertEquals(BoardEngine.NONE, board.place(18, 15 + c, 'O'));
+        }
+        assertEquals(BoardEngine.NONE, board.place(17, 14, 'O'));
+        assertEquals('O', board.get(18, 18));
+    }
+
+    @Test
+    public void agreesWithBitboardOnRandomGames()
+    {
+        Random rnd = new Random(42);
+        for (int game = 0; game < 2000; game++)
+        {
+            BoardEngine grid = new GridBoard(3, 3);
+            BoardEngine bits = new XoBoard();
+            char symbol = 'X';
+            char result = BoardEngine.NONE;
+            while (result == BoardEngine.NONE)
+            {
+                int r, c;
+                do
+                {
+                    r = rnd.nextInt(3);
+                    c = rnd.nextInt(3);
+                }
+                while (!bits.isEmpty(r, c));
+
+                result = bits.place(r, c, symbol);
+                assertEquals(result, grid.place(r, c, symbol));
+                symbol = symbol == 'X' ? 'O' : 'X';
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void winLengthAboveSizeIsRejected()
+    {
+        new GridBoard(4, 5);
+    }
+}
@@ -0,0 +1,80 @@
+package il.cshaifasweng.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import il.cshaifasweng.OCSFMediatorExample.entities.LeaderboardPage;
+import il.cshaifasweng.OCSFMediatorExample.server.Leaderboard;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Ranks and pages of the leaderboard skip list, against a sorted list.
+ */
+public class LeaderboardTest
+{
+    @Test
+    public void ranksByRatingThenName()
+    {
+        Leaderboard board = new Leaderboard();
+        board.add("carol", 1500);
+        board.add("alice", 1620);
+        board.add("bob", 1500);
+
+        assertEquals(1, board.rankOf("alice", 1620));
+        assertEquals(2, board.rankOf("bob", 1500));
+        assertEquals(3, board.rankOf("carol", 1500));
+        assertEquals(0, board.rankOf("carol", 1501));
+
+        List<LeaderboardPage.Entry> page = board.page(2, 10);
+        assertEquals(2, page.size());
+        assertEquals("bob", page.get(0).getName());
+        assertEquals(2, page.get(0).getRank());
+        assertEquals("carol", page.get(1).getName());
+        assertTrue(board.page(4, 10).isEmpty());
+    }
+
+    @Test
+    public void staysInOrderThroughRatingChanges()
+    {
+        Random random = new Random(7);
+        Leaderboard board = new Leaderboard();
+        Map<String, Integer> ratings = new HashMap<>();
+        for (int i = 0; i < 20_000; i++)
+        {
+            String name = "p" + random.nextInt(2_000);
+            int rating = 1200 + random.nextInt(600);
+            Integer old = ratings.put(name, rating);
+            if (old != null)
+            {
+                assertTrue(board.remove(name, old));
+            }
+            board.add(name, rating);
+        }
+        assertFalse(board.remove("nobody", 1500));
+
+        List<String> expected = new ArrayList<>(ratings.keySet());
+        expected.sort(Comparator.<String>comparingInt(ratings::get).reversed().thenComparing(name -> name));
+        assertEquals(expected.size(), board.size());
+
+        for (int rank = 1; rank <= expected.size(); rank += 97)
+        {
+            String name = expected.get(rank - 1);
+            assertEquals(rank, board.rankOf(name, ratings.get(name)));
+        }
+        List<LeaderboardPage.Entry> page = board.page(101, 50);
+        for (int i = 0; i < page.size(); i++)
+        {
+            assertEquals(expected.get(100 + i), page.get(i).getName());
+            assertEquals(101 + i, page.get(i).getRank());
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package il.cshaifasweng.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import il.cshaifasweng.OCSFMediatorExample.server.Mailbox;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Ordering, exclusion and fairness of room mailboxes on a shared pool.
+ */
+public class MailboxTest
+{
+    @Test
+    public void runsEachProducersTasksInOrderOneAtATime() throws Exception
+    {
+        ExecutorService workers = Executors.newFixedThreadPool(4);
+        try
+        {
+            Mailbox mailbox = new Mailbox(workers);
+            int producers = 4;
+            int tasks = 20_000;
+            int[] last = new int[producers]; // only touched by the mailbox's tasks
+            AtomicBoolean running = new AtomicBoolean();
+            AtomicBoolean failed = new AtomicBoolean();
+            CountDownLatch done = new CountDownLatch(producers * tasks);
+
+            Thread[] threads = new Thread[producers];
+            for (int p = 0; p < producers; p++)
+            {
+                int producer = p;
+                threads[p] = new Thread(() ->
+                {
+                    for (int i = 1; i <= tasks; i++)
+                    {
+                        int n = i;
+                        mailbox.execute(() ->
+                        {
+                            if (!running.compareAndSet(false, true) || last[producer] != n - 1)
+                            {
+                                failed.set(true);
+                            }
+                            last[producer] = n;
+                            running.set(false);
+                            done.countDown();
+                        });
+                    }
+                });
+                threads[p].start();
+            }
+
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertFalse(failed.get());
+            assertEquals(producers * tasks, mailbox.getTasksRun());
+            assertTrue(mailbox.getMaxWaitNanos() >= mailbox.getMeanWaitNanos());
+        }
+        finally
+        {
+            workers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void aBusyRoomDoesNotStarveAQuietOne() throws Exception
+    {
+        ExecutorService workers = Executors.newSingleThreadExecutor();
+        try
+        {
+            Mailbox busy = new Mailbox(workers);
+            Mailbox quiet = new Mailbox(workers);
+            AtomicInteger busyRun = new AtomicInteger();
+            CountDownLatch gate = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(1);
+
+            // Holds the only worker until both rooms have work queued
+            workers.execute(() ->
+            {
+                try
+                {
+                    gate.await();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            for (int i = 0; i < 10_000; i++)
+            {
+                busy.execute(busyRun::incrementAndGet);
+            }
+            int[] busyBefore = new int[1];
+            quiet.execute(() ->
+            {
+                busyBefore[0] = busyRun.get();
+                done.countDown();
+            });
+            gate.countDown();
+
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertTrue(busyBefore[0] < 10_000);
+        }
+        finally
+        {
+            workers.shutdownNow();
+        }
+    }
+}
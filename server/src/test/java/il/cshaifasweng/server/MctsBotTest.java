@@ -0,0 +1,118 @@
+package il.cshaifasweng.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import il.cshaifasweng.OCSFMediatorExample.server.BoardEngine;
+import il.cshaifasweng.OCSFMediatorExample.server.MctsBot;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Move choices of the Monte Carlo tree search bot on gomoku boards.
+ */
+public class MctsBotTest
+{
+    private final ForkJoinPool pool = new ForkJoinPool(2);
+
+    private final MctsBot bot = new MctsBot(pool, 50);
+
+    @After
+    public void shutDown()
+    {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void completesItsOwnFour()
+    {
+        BoardEngine board = BoardEngine.create(15, 5);
+        for (int c = 3; c < 7; c++)
+        {
+            board.place(4, c, 'X');
+            board.place(10, c + 1, 'O');
+        }
+
+        int cell = bot.bestMove(board, 'X');
+        assertTrue(cell == 4 * 15 + 2 || cell == 4 * 15 + 7);
+    }
+
+    @Test
+    public void blocksTheOpponentsFour()
+    {
+        BoardEngine board = BoardEngine.create(15, 5);
+        for (int r = 5; r < 9; r++)
+        {
+            board.place(r, 2, 'O');
+        }
+        board.place(0, 0, 'X');
+        board.place(14, 14, 'X');
+
+        int cell = bot.bestMove(board, 'X');
+        assertTrue(cell == 4 * 15 + 2 || cell == 9 * 15 + 2);
+    }
+
+    @Test
+    public void playsNextToTheStones()
+    {
+        BoardEngine board = BoardEngine.create(15, 5);
+        board.place(7, 7, 'O');
+
+        int cell = bot.bestMove(board, 'X');
+        assertTrue(Math.abs(cell / 15 - 7) <= 1 && Math.abs(cell % 15 - 7) <= 1);
+        assertEquals('\0', board.get(cell / 15, cell % 15)); // the board is left as it was
+    }
+
+    @Test
+    public void beatsARandomPlayer()
+    {
+        BoardEngine board = BoardEngine.create(15, 5);
+        Random random = new Random(1);
+        char side = 'O';
+        char result = BoardEngine.NONE;
+        while (result == BoardEngine.NONE)
+        {
+            int cell;
+            if (side == 'X')
+            {
+                cell = bot.bestMove(board, 'X');
+            }
+            else
+            {
+                do
+                {
+                    cell = random.nextInt(15 * 15);
+                } while (!board.isEmpty(cell / 15, cell % 15));
+            }
+            result = board.place(cell / 15, cell % 15, side);
+            side = side == 'X' ? 'O' : 'X';
+        }
+        assertEquals('X', result);
+    }
+
+    @Test
+    public void keepsToItsTimeOnALargeBoard()
+    {
+        // Scattered stones and no threats: the scan for double threats finds nothing
+        BoardEngine board = BoardEngine.create(61, 5);
+        for (int r = 0; r < 61; r += 4)
+        {
+            for (int c = 0; c < 61; c += 4)
+            {
+                board.place(r, c, 'X');
+                if (r + 2 < 61 && c + 2 < 61)
+                {
+                    board.place(r + 2, c + 2, 'O');
+                }
+            }
+        }
+
+        long start = System.nanoTime();
+        bot.bestMove(board, 'X');
+        assertTrue((System.nanoTime() - start) / 1_000_000 < 500);
+    }
+}
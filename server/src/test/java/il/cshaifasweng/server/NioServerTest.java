@@ -0,0 +1,150 @@
+package il.cshaifasweng.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import il.cshaifasweng.OCSFMediatorExample.entities.wire.SerializationCodec;
+import il.cshaifasweng.OCSFMediatorExample.entities.wire.WireFormat;
+import il.cshaifasweng.OCSFMediatorExample.server.ocsf.AbstractServer;
+import il.cshaifasweng.OCSFMediatorExample.server.ocsf.ConnectionMode;
+import il.cshaifasweng.OCSFMediatorExample.server.ocsf.ConnectionToClient;
+import il.cshaifasweng.OCSFMediatorExample.server.ocsf.OverflowPolicy;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * A server running its connections in ConnectionMode.NIO
+ */
+public class NioServerTest
+{
+    /**
+     * Records the hooks called by the server, in order
+     */
+    private static final class RecordingServer extends AbstractServer
+    {
+        final List<String> hooks = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch disconnected = new CountDownLatch(1);
+
+        RecordingServer(int port)
+        {
+            super(port);
+        }
+
+        @Override
+        protected void clientConnected(ConnectionToClient client)
+        {
+            hooks.add("connected");
+        }
+
+        /**
+         * Records the message and echoes it, so the client knows it has been handled
+         */
+        @Override
+        protected void handleMessageFromClient(Object msg, ConnectionToClient client)
+        {
+            hooks.add("message " + msg);
+            try
+            {
+                client.sendToClient(msg);
+            }
+            catch (IOException ex)
+            {
+                hooks.add("send failed");
+            }
+        }
+
+        @Override
+        protected synchronized void clientDisconnected(ConnectionToClient client)
+        {
+            hooks.add("disconnected");
+            disconnected.countDown();
+        }
+    }
+
+    private static int freePort() throws IOException
+    {
+        try (ServerSocket free = new ServerSocket(0))
+        {
+            return free.getLocalPort();
+        }
+    }
+
+    @Test
+    public void needsAnOutboundQueue() throws IOException
+    {
+        RecordingServer server = new RecordingServer(freePort());
+        server.setConnectionMode(ConnectionMode.NIO);
+        server.setCodec(SerializationCodec.INSTANCE);
+        try
+        {
+            server.listen();
+            fail("a worker could wait for a client that does not read");
+        }
+        catch (IllegalStateException expected)
+        {
+            assertFalse(server.isListening());
+        }
+        finally
+        {
+            server.close();
+        }
+    }
+
+    @Test
+    public void callsTheHooksInOrderWhenFramesArriveInPieces() throws Exception
+    {
+        RecordingServer server = new RecordingServer(freePort());
+        server.setConnectionMode(ConnectionMode.NIO);
+        server.setCodec(SerializationCodec.INSTANCE);
+        server.setOutboundQueue(16, OverflowPolicy.BLOCK);
+        server.listen();
+        try (Socket socket = new Socket("localhost", server.getPort()))
+        {
+            socket.setSoTimeout(5000);
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            WireFormat.writeHeader(out, SerializationCodec.INSTANCE);
+            WireFormat.readHeader(in, SerializationCodec.INSTANCE);
+
+            out.write(WireFormat.frame(SerializationCodec.INSTANCE, "first"));
+            assertEquals("first", WireFormat.readFrame(in, SerializationCodec.INSTANCE));
+
+            // The selector reads the first half alone: no worker may decode it yet
+            byte[] frame = WireFormat.frame(SerializationCodec.INSTANCE, "second");
+            int half = frame.length / 2;
+            out.write(frame, 0, half);
+            out.flush();
+            Thread.sleep(200);
+            assertEquals(Arrays.asList("connected", "message first"), new ArrayList<>(server.hooks));
+            out.write(frame, half, frame.length - half);
+            assertEquals("second", WireFormat.readFrame(in, SerializationCodec.INSTANCE));
+        }
+
+        try
+        {
+            assertTrue(server.disconnected.await(5, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList("connected", "message first", "message second", "disconnected"),
+                    new ArrayList<>(server.hooks));
+        }
+        finally
+        {
+            server.close();
+        }
+    }
+}
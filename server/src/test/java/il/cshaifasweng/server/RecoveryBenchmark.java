@@ -0,0 +1,128 @@
+package il.cshaifasweng.server;
+
+import il.cshaifasweng.OCSFMediatorExample.server.GameJournal;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Measures how long opening the journal takes after a restart, with and
+ * without a snapshot, as the number of games in progress grows. Each
+ * run journals a history of finished games, the games in progress, and
+ * a tail of moves after the snapshot.
+ * <p>
+ * Not a unit test; run with
+ * {@code java -cp server/target/classes:server/target/test-classes il.cshaifasweng.server.RecoveryBenchmark}
+ */
+public class RecoveryBenchmark
+{
+    /**
+     * Finished games journaled per game in progress
+     */
+    private static final int HISTORY_PER_ROOM = 5;
+
+    private static final int TAIL_MOVES = 1000;
+
+    public static void main(String[] args) throws Exception
+    {
+        int[] activeRooms = {1_000, 10_000, 50_000};
+
+        run(activeRooms[0]); // warm-up
+        System.out.printf("%12s %12s %16s %16s%n", "active rooms", "journal MB", "full replay ms", "snapshot+tail ms");
+        for (int rooms : activeRooms)
+        {
+            run(rooms);
+        }
+    }
+
+    private static void run(int rooms) throws IOException
+    {
+        Path dir = Files.createTempDirectory("journal-bench");
+        try
+        {
+            try (GameJournal journal = new GameJournal(dir))
+            {
+                long room = 0;
+                for (int i = 0; i < rooms * HISTORY_PER_ROOM; i++)
+                {
+                    playFinishedGame(journal, ++room);
+                }
+                for (int i = 0; i < rooms; i++)
+                {
+                    journal.roomOpened(++room, 3, 3, '1', 'X');
+                    journal.moved(room, 1, 1, 1, 'X');
+                    journal.moved(room, 2, 0, 0, 'O');
+                }
+            }
+            long journalBytes = size(dir);
+
+            long start = System.nanoTime();
+            long fullReplay;
+            try (GameJournal journal = new GameJournal(dir))
+            {
+                fullReplay = System.nanoTime() - start;
+                check(journal, rooms);
+
+                journal.snapshot(journal::getRecoveredGames, journal.getLastRoomId());
+                long firstActive = journal.getLastRoomId() - rooms + 1;
+                for (int i = 0; i < TAIL_MOVES && i < rooms; i++)
+                {
+                    journal.moved(firstActive + i, 3, 2, 2, 'X');
+                }
+            }
+
+            start = System.nanoTime();
+            long fromSnapshot;
+            try (GameJournal journal = new GameJournal(dir))
+            {
+                fromSnapshot = System.nanoTime() - start;
+                check(journal, rooms);
+            }
+
+            System.out.printf("%12d %12.1f %16.1f %16.1f%n", rooms, journalBytes / 1e6,
+                    fullReplay / 1e6, fromSnapshot / 1e6);
+        }
+        finally
+        {
+            try (Stream<Path> files = Files.walk(dir))
+            {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * A drawn 3x3 game, opened and closed
+     */
+    private static void playFinishedGame(GameJournal journal, long room)
+    {
+        int[][] moves = {{1, 1}, {0, 0}, {0, 1}, {2, 1}, {1, 0}, {1, 2}, {0, 2}, {2, 0}, {2, 2}};
+        journal.roomOpened(room, 3, 3, '1', 'X');
+        char symbol = 'X';
+        for (int i = 0; i < moves.length; i++)
+        {
+            journal.moved(room, i + 1, moves[i][0], moves[i][1], symbol);
+            symbol = symbol == 'X' ? 'O' : 'X';
+        }
+        journal.roomClosed(room);
+    }
+
+    private static void check(GameJournal journal, int rooms)
+    {
+        if (journal.getRecoveredGames().size() != rooms)
+        {
+            throw new IllegalStateException("recovered " + journal.getRecoveredGames().size() + " of " + rooms);
+        }
+    }
+
+    private static long size(Path dir) throws IOException
+    {
+        try (Stream<Path> files = Files.list(dir))
+        {
+            return files.mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package il.cshaifasweng.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import il.cshaifasweng.OCSFMediatorExample.entities.BoardDelta;
+import il.cshaifasweng.OCSFMediatorExample.entities.GameStart;
+import il.cshaifasweng.OCSFMediatorExample.entities.MoveRequest;
+import il.cshaifasweng.OCSFMediatorExample.entities.ResumeRequest;
+import il.cshaifasweng.OCSFMediatorExample.entities.SessionToken;
+import il.cshaifasweng.OCSFMediatorExample.entities.wire.CompactCodec;
+import il.cshaifasweng.OCSFMediatorExample.entities.wire.WireFormat;
+import il.cshaifasweng.OCSFMediatorExample.server.SimpleServer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Games that outlive a restart of the server, through its journal.
+ */
+public class SimpleServerTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A player speaking the server's framed codec over a plain socket
+     */
+    static final class Player implements Closeable
+    {
+        private final Socket socket;
+        private final OutputStream out;
+        private final DataInputStream in;
+
+        Player(SimpleServer server) throws IOException
+        {
+            socket = new Socket("localhost", server.getPort());
+            socket.setSoTimeout(5000);
+            out = new BufferedOutputStream(socket.getOutputStream());
+            WireFormat.writeHeader(out, CompactCodec.INSTANCE);
+            out.flush();
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            WireFormat.readHeader(in, CompactCodec.INSTANCE);
+        }
+
+        void send(Object message) throws IOException
+        {
+            out.write(WireFormat.frame(CompactCodec.INSTANCE, message));
+            out.flush();
+        }
+
+        /**
+         * @return the next message of a type, skipping the others
+         */
+        <T> T next(Class<T> type) throws Exception
+        {
+            while (true)
+            {
+                Object message = WireFormat.readFrame(in, CompactCodec.INSTANCE);
+                if (type.isInstance(message))
+                {
+                    return type.cast(message);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            socket.close();
+        }
+    }
+
+    /**
+     * The tokens and symbols of two players with one move played
+     */
+    private String token1;
+    private String token2;
+    private GameStart start1;
+
+    private SimpleServer start(Path journal, long graceMillis) throws IOException
+    {
+        int port;
+        try (ServerSocket free = new ServerSocket(0))
+        {
+            port = free.getLocalPort();
+        }
+        SimpleServer server = new SimpleServer(port);
+        server.setResumeGrace(graceMillis);
+        server.openJournal(journal);
+        server.listen();
+        return server;
+    }
+
+    /**
+     * Pairs two players, plays the first move, and stops the server
+     */
+    private void playOneMoveAndStop(Path journal) throws Exception
+    {
+        SimpleServer server = start(journal, 30_000);
+        try (Player player1 = new Player(server); Player player2 = new Player(server))
+        {
+            token1 = player1.next(SessionToken.class).getToken();
+            token2 = player2.next(SessionToken.class).getToken();
+            player1.send("#play");
+            player2.send("#play");
+            start1 = player1.next(GameStart.class);
+            player2.next(GameStart.class);
+
+            (start1.isYourTurn() ? player1 : player2).send(new MoveRequest(1, 1, 1));
+            player1.next(BoardDelta.class);
+            player2.next(BoardDelta.class);
+        }
+        finally
+        {
+            server.close();
+        }
+    }
+
+    @Test
+    public void resumesAGameAfterARestart() throws Exception
+    {
+        Path journal = folder.getRoot().toPath();
+        playOneMoveAndStop(journal);
+
+        SimpleServer server = start(journal, 30_000);
+        try (Player player1 = new Player(server); Player player2 = new Player(server))
+        {
+            assertEquals(1, server.getRoomCount());
+            player1.send(new ResumeRequest(token1, 1));
+            player2.send(new ResumeRequest(token2, 1));
+            GameStart resumed1 = player1.next(GameStart.class);
+            GameStart resumed2 = player2.next(GameStart.class);
+            assertEquals(start1.getSymbol(), resumed1.getSymbol());
+            assertNotEquals(start1.isYourTurn(), resumed1.isYourTurn());
+            assertNotEquals(resumed1.isYourTurn(), resumed2.isYourTurn());
+
+            // The game goes on from the move played before the restart
+            Player mover = resumed1.isYourTurn() ? player1 : player2;
+            mover.send(new MoveRequest(0, 0, 2));
+            BoardDelta delta = player1.next(BoardDelta.class);
+            assertEquals(2, delta.getSeq());
+            assertEquals(2, player2.next(BoardDelta.class).getSeq());
+        }
+        finally
+        {
+            server.close();
+        }
+    }
+
+    @Test
+    public void closesARecoveredGameNobodyResumes() throws Exception
+    {
+        Path journal = folder.getRoot().toPath();
+        playOneMoveAndStop(journal);
+
+        SimpleServer server = start(journal, 100);
+        try
+        {
+            assertEquals(1, server.getRoomCount());
+            for (int i = 0; i < 50 && server.getRoomCount() > 0; i++)
+            {
+                Thread.sleep(100);
+            }
+            assertEquals(0, server.getRoomCount());
+        }
+        finally
+        {
+            server.close();
+        }
+
+        // The closing was journaled: the game is not recovered again
+        server = start(journal, 30_000);
+        try
+        {
+            assertEquals(0, server.getRoomCount());
+        }
+        finally
+        {
+            server.close();
+        }
+    }
+
+    @Test
+    public void resumingWithoutATokenWaitsForANewGame() throws Exception
+    {
+        SimpleServer server = start(folder.getRoot().toPath(), 30_000);
+        try (Player player = new Player(server))
+        {
+            player.send(new ResumeRequest(null, 0));
+            player.send(new ResumeRequest("", 0));
+            String reply;
+            do
+            {
+                reply = player.next(String.class);
+            }
+            while (reply.equals("Connected."));
+            assertEquals("Your game is over. Waiting for an opponent...", reply);
+            assertEquals(0, server.getRoomCount());
+        }
+        finally
+        {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package il.cshaifasweng.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import il.cshaifasweng.OCSFMediatorExample.server.TimingWheel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Scheduling, rescheduling and cancelling timers on the wheel.
+ */
+public class TimingWheelTest
+{
+    @Test
+    public void firesNoEarlierThanTheDelay() throws Exception
+    {
+        try (TimingWheel wheel = new TimingWheel(5, 8, Runnable::run))
+        {
+            long[] delays = {1, 20, 45, 120}; // the last goes round the wheel
+            CountDownLatch fired = new CountDownLatch(delays.length);
+            List<Long> late = new ArrayList<>();
+            long start = System.nanoTime();
+            for (long delay : delays)
+            {
+                wheel.schedule(new TimingWheel.Timer(() ->
+                {
+                    synchronized (late)
+                    {
+                        late.add(System.nanoTime() - start - TimeUnit.MILLISECONDS.toNanos(delay));
+                    }
+                    fired.countDown();
+                }), delay);
+            }
+
+            assertTrue(fired.await(5, TimeUnit.SECONDS));
+            for (long nanos : late)
+            {
+                assertTrue(nanos >= 0);
+            }
+            assertEquals(0, wheel.size());
+        }
+    }
+
+    @Test
+    public void cancelledAndRescheduledTimersRunOnce() throws Exception
+    {
+        try (TimingWheel wheel = new TimingWheel(5, 64, Runnable::run))
+        {
+            AtomicInteger runs = new AtomicInteger();
+            List<TimingWheel.Timer> timers = new ArrayList<>();
+            for (int i = 0; i < 10_000; i++)
+            {
+                TimingWheel.Timer timer = new TimingWheel.Timer(runs::incrementAndGet);
+                timers.add(timer);
+                wheel.schedule(timer, 50 + i % 100);
+            }
+            for (int i = 0; i < timers.size(); i += 2)
+            {
+                assertTrue(wheel.cancel(timers.get(i)));
+            }
+            for (int i = 1; i < timers.size(); i += 2)
+            {
+                wheel.schedule(timers.get(i), 10); // moved, not added twice
+            }
+            assertEquals(5_000, wheel.size());
+            assertFalse(wheel.cancel(timers.get(0)));
+
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (wheel.size() > 0 && System.currentTimeMillis() < deadline)
+            {
+                Thread.sleep(10);
+            }
+            Thread.sleep(200);
+            assertEquals(5_000, runs.get());
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package il.cshaifasweng.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import il.cshaifasweng.OCSFMediatorExample.server.XoBoard;
+
+import org.junit.Test;
+
+/**
+ * Win and draw detection of the bitboard.
+ */
+public class XoBoardTest
+{
+    @Test
+    public void everyLineWins()
+    {
+        int[][][] lines = {
+            {{0, 0}, {0, 1}, {0, 2}}, {{1, 0}, {1, 1}, {1, 2}}, {{2, 0}, {2, 1}, {2, 2}},
+            {{0, 0}, {1, 0}, {2, 0}}, {{0, 1}, {1, 1}, {2, 1}}, {{0, 2}, {1, 2}, {2, 2}},
+            {{0, 0}, {1, 1}, {2, 2}}, {{0, 2}, {1, 1}, {2, 0}}
+        };
+        for (int[][] line : lines)
+        {
+            XoBoard board = new XoBoard();
+            assertEquals(XoBoard.NONE, board.place(line[0][0], line[0][1], 'O'));
+            assertEquals(XoBoard.NONE, board.place(line[1][0], line[1][1], 'O'));
+            assertEquals('O', board.place(line[2][0], line[2][1], 'O'));
+        }
+    }
+
+    @Test
+    public void fullBoardWithoutLineIsDraw()
+    {
+        // X O X / X O O / O X X
+        XoBoard board = new XoBoard();
+        String cells = "XOXXOOOXX";
+        char result = XoBoard.NONE;
+        for (int i = 0; i < 9; i++)
+        {
+            assertEquals(XoBoard.NONE, result);
+            result = board.place(i / 3, i % 3, cells.charAt(i));
+        }
+        assertEquals(XoBoard.DRAW, result);
+        assertEquals('O', board.get(2, 0));
+    }
+
+    @Test
+    public void winOnLastCellIsNotDraw()
+    {
+        // X O X / O X O / O X _ : the last X fills the board and the diagonal
+        XoBoard board = new XoBoard();
+        board.place(0, 0, 'X'); board.place(0, 1, 'O'); board.place(0, 2, 'X');
+        board.place(1, 0, 'O'); board.place(1, 1, 'X'); board.place(1, 2, 'O');
+        board.place(2, 0, 'O'); board.place(2, 1, 'X');
+        assertEquals('X', board.place(2, 2, 'X'));
+        assertFalse(board.isEmpty(2, 2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void takenCellIsRejected()
+    {
+        XoBoard board = new XoBoard();
+        board.place(1, 1, 'X');
+        board.place(1, 1, 'O');
+    }
+}